@@ -33,6 +33,7 @@ import com.squareup.okhttp.HttpUrl;
 import com.squareup.okhttp.OkHttpClient;
 import com.squareup.okhttp.logging.HttpLoggingInterceptor;
 
+import de.schildbach.wallet.util.HttpMetrics;
 import org.globaltoken.wallet.R;
 
 import android.os.Build;
@@ -96,12 +97,30 @@ public final class Constants {
         /** Filename of the block store for storing the chain. */
         public static final String BLOCKCHAIN_FILENAME = "blockchain" + FILENAME_NETWORK_SUFFIX;
 
-        /** Filename of the block checkpoints file. */
-        public static final String CHECKPOINTS_FILENAME = "checkpoints" + FILENAME_NETWORK_SUFFIX + ".txt";
+        /** Filename of the block checkpoints file, as generated from the text checkpoints at build time. */
+        public static final String CHECKPOINTS_FILENAME = "checkpoints" + FILENAME_NETWORK_SUFFIX + ".bin";
+
+        /** Filename of the cache of peers that recently served us well. */
+        public static final String PEERS_FILENAME = "peers" + FILENAME_NETWORK_SUFFIX + ".txt";
 
         /** Filename of the fees files. */
         public static final String FEES_FILENAME = "fees" + FILENAME_NETWORK_SUFFIX + ".txt";
 
+        /** Filename of the samples of the local fee estimator. */
+        public static final String FEE_ESTIMATOR_FILENAME = "fee-estimator" + FILENAME_NETWORK_SUFFIX;
+
+        /** Filename of the exchange rates cache. */
+        public static final String EXCHANGE_RATES_FILENAME = "exchange-rates" + FILENAME_NETWORK_SUFFIX;
+
+        /** Name of the directory containing the exchange rates history, one file per currency. */
+        public static final String EXCHANGE_RATES_HISTORY_DIRNAME = "exchange-rates-history" + FILENAME_NETWORK_SUFFIX;
+
+        /** Filename of the snapshot of the first rows of the transaction list. */
+        public static final String TRANSACTIONS_SNAPSHOT_FILENAME = "transactions-snapshot" + FILENAME_NETWORK_SUFFIX;
+
+        /** Name of the directory containing the HTTP response cache. */
+        public static final String HTTP_CACHE_DIRNAME = "http";
+
         /** Filename of the file containing Electrum servers. */
         public static final String ELECTRUM_SERVERS_FILENAME = "electrum-servers.txt";
     }
@@ -200,6 +219,12 @@ public final class Constants {
     public static final int ELECTRUM_SERVER_DEFAULT_PORT_TLS = NETWORK_PARAMETERS.getId()
             .equals(NetworkParameters.ID_MAINNET) ? 50002 : 51002;
 
+    /** Statistics about calls made by {@link #HTTP_CLIENT} and its clones */
+    public static final HttpMetrics HTTP_METRICS = new HttpMetrics();
+
+    /** Maximum size of the HTTP response cache */
+    public static final long HTTP_CACHE_SIZE = 1024 * 1024;
+
     /** Shared HTTP client, can reuse connections */
     public static final OkHttpClient HTTP_CLIENT = new OkHttpClient();
     static {
@@ -217,6 +242,7 @@ public final class Constants {
                     }
                 });
         loggingInterceptor.setLevel(HttpLoggingInterceptor.Level.BASIC);
+        HTTP_CLIENT.interceptors().add(HTTP_METRICS);
         HTTP_CLIENT.interceptors().add(loggingInterceptor);
     }
 
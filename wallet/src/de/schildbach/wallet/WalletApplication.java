@@ -32,6 +32,7 @@ import org.bitcoinj.core.VersionMessage;
 import org.bitcoinj.crypto.LinuxSecureRandom;
 import org.bitcoinj.crypto.MnemonicCode;
 import org.bitcoinj.utils.Threading;
+import org.bitcoinj.wallet.CoinSelector;
 import org.bitcoinj.wallet.Protos;
 import org.bitcoinj.wallet.UnreadableWalletException;
 import org.bitcoinj.wallet.Wallet;
@@ -42,7 +43,14 @@ import org.slf4j.LoggerFactory;
 import com.google.common.base.Splitter;
 import com.google.common.base.Stopwatch;
 import com.google.common.collect.ImmutableList;
-
+import com.squareup.okhttp.Cache;
+
+import de.schildbach.wallet.data.BranchAndBoundCoinSelector;
+import de.schildbach.wallet.data.DynamicFeeCache;
+import de.schildbach.wallet.data.ExchangeRatesHistory;
+import de.schildbach.wallet.data.FeeEstimator;
+import de.schildbach.wallet.data.TransactionSummaries;
+import de.schildbach.wallet.data.UtxoIndex;
 import de.schildbach.wallet.service.BlockchainService;
 import de.schildbach.wallet.service.BlockchainServiceImpl;
 import de.schildbach.wallet.util.CrashReporter;
@@ -89,7 +97,13 @@ public class WalletApplication extends Application {
 
     private File walletFile;
     private Wallet wallet;
+    private UtxoIndex utxoIndex;
+    private CoinSelector coinSelector;
+    private TransactionSummaries transactionSummaries;
     private PackageInfo packageInfo;
+    private ExchangeRatesHistory exchangeRatesHistory;
+    private DynamicFeeCache dynamicFeeCache;
+    private FeeEstimator feeEstimator;
 
     public static final String ACTION_WALLET_REFERENCE_CHANGED = WalletApplication.class.getPackage().getName()
             + ".wallet_reference_changed";
@@ -122,6 +136,9 @@ public class WalletApplication extends Application {
 
         CrashReporter.init(getCacheDir());
 
+        Constants.HTTP_CLIENT.setCache(new Cache(new File(getCacheDir(), Constants.Files.HTTP_CACHE_DIRNAME),
+                Constants.HTTP_CACHE_SIZE));
+
         Threading.uncaughtExceptionHandler = new Thread.UncaughtExceptionHandler() {
             @Override
             public void uncaughtException(final Thread thread, final Throwable throwable) {
@@ -161,6 +178,14 @@ public class WalletApplication extends Application {
     }
 
     private void afterLoadWallet() {
+        if (utxoIndex != null)
+            utxoIndex.shutdown();
+        utxoIndex = new UtxoIndex(wallet);
+        coinSelector = new BranchAndBoundCoinSelector(utxoIndex);
+        if (transactionSummaries != null)
+            transactionSummaries.shutdown();
+        transactionSummaries = new TransactionSummaries(wallet);
+
         wallet.autosaveToFile(walletFile, Constants.Files.WALLET_AUTOSAVE_DELAY_MS, TimeUnit.MILLISECONDS, null);
 
         // clean up spam
@@ -252,6 +277,38 @@ public class WalletApplication extends Application {
         return wallet;
     }
 
+    /**
+     * @return coin selector for sending from the current wallet
+     */
+    public CoinSelector getCoinSelector() {
+        return coinSelector;
+    }
+
+    public TransactionSummaries getTransactionSummaries() {
+        return transactionSummaries;
+    }
+
+    public synchronized ExchangeRatesHistory getExchangeRatesHistory() {
+        // lazily, because content providers are created before the application
+        if (exchangeRatesHistory == null)
+            exchangeRatesHistory = new ExchangeRatesHistory(
+                    new File(getFilesDir(), Constants.Files.EXCHANGE_RATES_HISTORY_DIRNAME));
+        return exchangeRatesHistory;
+    }
+
+    public synchronized DynamicFeeCache getDynamicFeeCache() {
+        if (dynamicFeeCache == null)
+            dynamicFeeCache = new DynamicFeeCache(this, getFeeEstimator());
+        return dynamicFeeCache;
+    }
+
+    public synchronized FeeEstimator getFeeEstimator() {
+        // lazily, samples are only read from disk on first use
+        if (feeEstimator == null)
+            feeEstimator = new FeeEstimator(new File(getFilesDir(), Constants.Files.FEE_ESTIMATOR_FILENAME));
+        return feeEstimator;
+    }
+
     private void loadWalletFromProtobuf() {
         if (walletFile.exists()) {
             FileInputStream walletStream = null;
@@ -17,15 +17,26 @@
 
 package de.schildbach.wallet.data;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
 
 /**
@@ -33,6 +44,8 @@ import android.net.Uri;
  */
 public class AddressBookProvider extends ContentProvider {
     private static final String DATABASE_TABLE = "address_book";
+    private static final String DATABASE_TABLE_FTS = DATABASE_TABLE + "_fts";
+    private static final String FILTER_TABLE = "temp." + DATABASE_TABLE + "_filter";
 
     public static final String KEY_ROWID = "_id";
     public static final String KEY_ADDRESS = "address";
@@ -46,24 +59,77 @@ public class AddressBookProvider extends ContentProvider {
         return Uri.parse("content://" + packageName + '.' + DATABASE_TABLE);
     }
 
-    public static String resolveLabel(final Context context, final String address) {
-        String label = null;
+    // All labels by address, loaded on first use. Kept coherent by the writing methods of this provider, which is the
+    // only writer of the database.
+    private static final Object labelsLock = new Object();
+    @Nullable
+    private static Map<String, String> labels = null;
 
-        final Uri uri = contentUri(context.getPackageName()).buildUpon().appendPath(address).build();
-        final Cursor cursor = context.getContentResolver().query(uri, null, null, null, null);
+    public static String resolveLabel(final Context context, final String address) {
+        synchronized (labelsLock) {
+            return labels(context).get(address);
+        }
+    }
 
-        if (cursor != null) {
-            if (cursor.moveToFirst())
-                label = cursor.getString(cursor.getColumnIndexOrThrow(AddressBookProvider.KEY_LABEL));
+    /**
+     * Looks up the labels of many addresses at once.
+     *
+     * @return labels by address, for those of the given addresses that have one
+     */
+    public static Map<String, String> resolveLabels(final Context context, final Collection<String> addresses) {
+        synchronized (labelsLock) {
+            final Map<String, String> labels = labels(context);
+            final Map<String, String> resolvedLabels = new HashMap<String, String>();
+            for (final String address : addresses) {
+                final String label = labels.get(address);
+                if (label != null)
+                    resolvedLabels.put(address, label);
+            }
+            return resolvedLabels;
+        }
+    }
 
-            cursor.close();
+    private static Map<String, String> labels(final Context context) {
+        if (labels == null) {
+            final Map<String, String> labels = new HashMap<String, String>();
+            final Cursor cursor = context.getContentResolver().query(contentUri(context.getPackageName()),
+                    new String[] { KEY_ADDRESS, KEY_LABEL }, null, null, null);
+            if (cursor != null) {
+                final int addressColumn = cursor.getColumnIndexOrThrow(KEY_ADDRESS);
+                final int labelColumn = cursor.getColumnIndexOrThrow(KEY_LABEL);
+                while (cursor.moveToNext()) {
+                    final String address = cursor.getString(addressColumn);
+                    final String label = cursor.getString(labelColumn);
+                    if (label != null && !labels.containsKey(address))
+                        labels.put(address, label);
+                }
+                cursor.close();
+            }
+            AddressBookProvider.labels = labels;
         }
+        return labels;
+    }
 
-        return label;
+    private static void updateLabel(final String address, @Nullable final String label) {
+        synchronized (labelsLock) {
+            if (labels != null) {
+                if (label != null)
+                    labels.put(address, label);
+                else
+                    labels.remove(address);
+            }
+        }
     }
 
     private Helper helper;
 
+    private final Object filterLock = new Object();
+    @Nullable
+    private String filterAddresses = null; // guarded by filterLock
+
+    // label changes of the batch that is being applied on the current thread, published once it has committed
+    private final ThreadLocal<Map<String, String>> batchLabels = new ThreadLocal<Map<String, String>>();
+
     @Override
     public boolean onCreate() {
         helper = new Helper(getContext());
@@ -84,11 +150,12 @@ public class AddressBookProvider extends ContentProvider {
         values.put(KEY_ADDRESS, address);
 
         long rowId = helper.getWritableDatabase().insertOrThrow(DATABASE_TABLE, null, values);
+        changeLabel(address, values.getAsString(KEY_LABEL));
 
         final Uri rowUri = contentUri(getContext().getPackageName()).buildUpon().appendPath(address)
                 .appendPath(Long.toString(rowId)).build();
 
-        getContext().getContentResolver().notifyChange(rowUri, null);
+        notifyChange(rowUri);
 
         return rowUri;
     }
@@ -103,8 +170,10 @@ public class AddressBookProvider extends ContentProvider {
         final int count = helper.getWritableDatabase().update(DATABASE_TABLE, values, KEY_ADDRESS + "=?",
                 new String[] { address });
 
+        if (count > 0 && values.containsKey(KEY_LABEL))
+            changeLabel(address, values.getAsString(KEY_LABEL));
         if (count > 0)
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
 
         return count;
     }
@@ -120,12 +189,92 @@ public class AddressBookProvider extends ContentProvider {
         final int count = helper.getWritableDatabase().delete(DATABASE_TABLE, KEY_ADDRESS + "=?",
                 new String[] { address });
 
-        if (count > 0)
-            getContext().getContentResolver().notifyChange(uri, null);
+        if (count > 0) {
+            changeLabel(address, null);
+            notifyChange(uri);
+        }
 
         return count;
     }
 
+    /**
+     * Inserts all entries within one transaction, with one change notification for all of them. Unlike
+     * {@link #insert(Uri, ContentValues)}, this takes the addresses from the values, and skips addresses that are
+     * already in the address book.
+     *
+     * @return number of entries inserted
+     */
+    @Override
+    public int bulkInsert(final Uri uri, final ContentValues[] values) {
+        if (!uri.getPathSegments().isEmpty())
+            throw new IllegalArgumentException(uri.toString());
+
+        final SQLiteDatabase db = helper.getWritableDatabase();
+        final Map<String, String> labels = new LinkedHashMap<String, String>();
+        db.beginTransaction();
+        try {
+            for (final ContentValues entry : values) {
+                final String address = entry.getAsString(KEY_ADDRESS);
+                if (address == null)
+                    throw new IllegalArgumentException("no address: " + entry);
+                if (db.insertWithOnConflict(DATABASE_TABLE, null, entry, SQLiteDatabase.CONFLICT_IGNORE) != -1)
+                    labels.put(address, entry.getAsString(KEY_LABEL));
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        for (final Map.Entry<String, String> label : labels.entrySet())
+            updateLabel(label.getKey(), label.getValue());
+        if (!labels.isEmpty())
+            getContext().getContentResolver().notifyChange(contentUri(getContext().getPackageName()), null);
+
+        return labels.size();
+    }
+
+    /**
+     * Applies all operations within one transaction, with one change notification for all of them. If one of them
+     * fails, none of them is applied.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(final ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = helper.getWritableDatabase();
+        final Map<String, String> labels = new LinkedHashMap<String, String>();
+        final ContentProviderResult[] results;
+        batchLabels.set(labels);
+        db.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            batchLabels.remove();
+        }
+
+        for (final Map.Entry<String, String> label : labels.entrySet())
+            updateLabel(label.getKey(), label.getValue());
+        if (!operations.isEmpty())
+            getContext().getContentResolver().notifyChange(contentUri(getContext().getPackageName()), null);
+
+        return results;
+    }
+
+    private void changeLabel(final String address, @Nullable final String label) {
+        final Map<String, String> labels = batchLabels.get();
+        if (labels != null)
+            labels.put(address, label);
+        else
+            updateLabel(address, label);
+    }
+
+    private void notifyChange(final Uri uri) {
+        // batches notify once they have committed
+        if (batchLabels.get() == null)
+            getContext().getContentResolver().notifyChange(uri, null);
+    }
+
     @Override
     public Cursor query(final Uri uri, final String[] projection, final String originalSelection,
             final String[] originalSelectionArgs, final String sortOrder) {
@@ -138,6 +287,7 @@ public class AddressBookProvider extends ContentProvider {
 
         String selection = null;
         String[] selectionArgs = null;
+        String filter = null;
 
         if (pathSegments.size() == 1) {
             final String address = uri.getLastPathSegment();
@@ -145,47 +295,123 @@ public class AddressBookProvider extends ContentProvider {
             qb.appendWhere(KEY_ADDRESS + "=");
             qb.appendWhereEscapeString(address);
         } else if (SELECTION_IN.equals(originalSelection)) {
-            final String[] addresses = originalSelectionArgs[0].trim().split(",");
-
-            qb.appendWhere(KEY_ADDRESS + " IN (");
-            appendAddresses(qb, addresses);
-            qb.appendWhere(")");
+            filter = originalSelectionArgs[0].trim();
+            qb.appendWhere(KEY_ADDRESS + " IN (SELECT " + KEY_ADDRESS + " FROM " + FILTER_TABLE + ")");
         } else if (SELECTION_NOTIN.equals(originalSelection)) {
-            final String[] addresses = originalSelectionArgs[0].trim().split(",");
-
-            qb.appendWhere(KEY_ADDRESS + " NOT IN (");
-            appendAddresses(qb, addresses);
-            qb.appendWhere(")");
+            filter = originalSelectionArgs[0].trim();
+            qb.appendWhere(KEY_ADDRESS + " NOT IN (SELECT " + KEY_ADDRESS + " FROM " + FILTER_TABLE + ")");
         } else if (SELECTION_QUERY.equals(originalSelection)) {
-            final String query = '%' + originalSelectionArgs[0].trim() + '%';
-            selection = KEY_ADDRESS + " LIKE ? OR " + KEY_LABEL + " LIKE ?";
-            selectionArgs = new String[] { query, query };
+            final String match = matchExpression(originalSelectionArgs[0]);
+            if (match != null) {
+                selection = KEY_ROWID + " IN (SELECT docid FROM " + DATABASE_TABLE_FTS + " WHERE "
+                        + DATABASE_TABLE_FTS + " MATCH ?)";
+                selectionArgs = new String[] { match };
+            } else {
+                final String query = '%' + originalSelectionArgs[0].trim() + '%';
+                selection = KEY_ADDRESS + " LIKE ? OR " + KEY_LABEL + " LIKE ?";
+                selectionArgs = new String[] { query, query };
+            }
         }
 
-        final Cursor cursor = qb.query(helper.getReadableDatabase(), projection, selection, selectionArgs, null, null,
-                sortOrder);
+        final Cursor cursor = filter != null ? queryFiltered(qb, projection, filter, sortOrder)
+                : qb.query(helper.getReadableDatabase(), projection, selection, selectionArgs, null, null, sortOrder);
 
         cursor.setNotificationUri(getContext().getContentResolver(), uri);
 
         return cursor;
     }
 
-    private static void appendAddresses(final SQLiteQueryBuilder qb, final String[] addresses) {
-        for (final String address : addresses) {
-            qb.appendWhereEscapeString(address.trim());
-            if (!address.equals(addresses[addresses.length - 1]))
-                qb.appendWhere(",");
+    /**
+     * Turns a search query into an FTS match expression, requiring each word to be a prefix of a word of the address
+     * or label. Words are split like the simple tokenizer does, and quoted so they can't be taken for operators.
+     *
+     * @return match expression, or {@code null} if the query contains no words
+     */
+    @Nullable
+    private static String matchExpression(final String query) {
+        final StringBuilder match = new StringBuilder();
+        final StringBuilder word = new StringBuilder();
+        for (int i = 0; i <= query.length(); i++) {
+            final char c = i < query.length() ? query.charAt(i) : ' ';
+            if (c >= 0x80 || Character.isLetterOrDigit(c)) {
+                word.append(c);
+            } else if (word.length() > 0) {
+                if (match.length() > 0)
+                    match.append(' ');
+                match.append('"').append(word).append("*\"");
+                word.setLength(0);
+            }
+        }
+        return match.length() > 0 ? match.toString() : null;
+    }
+
+    /**
+     * Runs a query that refers to the filter table, after filling it with the given comma separated addresses. The
+     * filter table is only refilled if the addresses differ from last time, which is the common case for the wallet
+     * addresses. The cursor window is filled before the filter can change again; an address book fits into one window,
+     * so the query is not run again later.
+     */
+    private Cursor queryFiltered(final SQLiteQueryBuilder qb, final String[] projection, final String addresses,
+            final String sortOrder) {
+        final SQLiteDatabase db = helper.getWritableDatabase();
+        synchronized (filterLock) {
+            String filled = null;
+            final Cursor cursor;
+            db.beginTransaction();
+            try {
+                if (!addresses.equals(filterAddresses)) {
+                    db.execSQL("DELETE FROM " + FILTER_TABLE + ";");
+                    final SQLiteStatement insert = db
+                            .compileStatement("INSERT OR IGNORE INTO " + FILTER_TABLE + " VALUES (?);");
+                    try {
+                        for (final String address : addresses.split(",")) {
+                            insert.bindString(1, address.trim());
+                            insert.executeInsert();
+                        }
+                    } finally {
+                        insert.close();
+                    }
+                    filled = addresses;
+                }
+
+                cursor = qb.query(db, projection, null, null, null, null, sortOrder);
+                cursor.getCount();
+
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            if (filled != null)
+                filterAddresses = filled;
+            return cursor;
         }
     }
 
     private static class Helper extends SQLiteOpenHelper {
         private static final String DATABASE_NAME = "address_book";
-        private static final int DATABASE_VERSION = 1;
+        private static final int DATABASE_VERSION = 3;
 
         private static final String DATABASE_CREATE = "CREATE TABLE " + DATABASE_TABLE + " (" //
                 + KEY_ROWID + " INTEGER PRIMARY KEY AUTOINCREMENT, " //
                 + KEY_ADDRESS + " TEXT NOT NULL, " //
                 + KEY_LABEL + " TEXT NULL);";
+        private static final String DATABASE_CREATE_ADDRESS_INDEX = "CREATE UNIQUE INDEX " + DATABASE_TABLE + "_"
+                + KEY_ADDRESS + " ON " + DATABASE_TABLE + " (" + KEY_ADDRESS + ");";
+
+        // full text index of addresses and labels, kept in sync with the table by triggers
+        private static final String[] DATABASE_CREATE_FTS = { //
+                "CREATE VIRTUAL TABLE " + DATABASE_TABLE_FTS + " USING fts4(content=\"" + DATABASE_TABLE + "\", "
+                        + KEY_ADDRESS + ", " + KEY_LABEL + ");",
+                "CREATE TRIGGER " + DATABASE_TABLE + "_bu BEFORE UPDATE ON " + DATABASE_TABLE + " BEGIN DELETE FROM "
+                        + DATABASE_TABLE_FTS + " WHERE docid=old." + KEY_ROWID + "; END;",
+                "CREATE TRIGGER " + DATABASE_TABLE + "_bd BEFORE DELETE ON " + DATABASE_TABLE + " BEGIN DELETE FROM "
+                        + DATABASE_TABLE_FTS + " WHERE docid=old." + KEY_ROWID + "; END;",
+                "CREATE TRIGGER " + DATABASE_TABLE + "_au AFTER UPDATE ON " + DATABASE_TABLE + " BEGIN INSERT INTO "
+                        + DATABASE_TABLE_FTS + "(docid, " + KEY_ADDRESS + ", " + KEY_LABEL + ") VALUES(new."
+                        + KEY_ROWID + ", new." + KEY_ADDRESS + ", new." + KEY_LABEL + "); END;",
+                "CREATE TRIGGER " + DATABASE_TABLE + "_ai AFTER INSERT ON " + DATABASE_TABLE + " BEGIN INSERT INTO "
+                        + DATABASE_TABLE_FTS + "(docid, " + KEY_ADDRESS + ", " + KEY_LABEL + ") VALUES(new."
+                        + KEY_ROWID + ", new." + KEY_ADDRESS + ", new." + KEY_LABEL + "); END;" };
 
         public Helper(final Context context) {
             super(context, DATABASE_NAME, null, DATABASE_VERSION);
@@ -194,6 +420,16 @@ public class AddressBookProvider extends ContentProvider {
         @Override
         public void onCreate(final SQLiteDatabase db) {
             db.execSQL(DATABASE_CREATE);
+            db.execSQL(DATABASE_CREATE_ADDRESS_INDEX);
+            for (final String sql : DATABASE_CREATE_FTS)
+                db.execSQL(sql);
+        }
+
+        @Override
+        public void onOpen(final SQLiteDatabase db) {
+            // temporary tables only live as long as the connection
+            db.execSQL("CREATE TEMP TABLE IF NOT EXISTS " + DATABASE_TABLE + "_filter (" + KEY_ADDRESS
+                    + " TEXT PRIMARY KEY);");
         }
 
         @Override
@@ -211,6 +447,15 @@ public class AddressBookProvider extends ContentProvider {
 
         private void upgrade(final SQLiteDatabase db, final int oldVersion) {
             if (oldVersion == 1) {
+                // Nothing prevented duplicate addresses so far. Keep the oldest entry, which is what lookups found.
+                db.execSQL("DELETE FROM " + DATABASE_TABLE + " WHERE " + KEY_ROWID + " NOT IN (SELECT MIN("
+                        + KEY_ROWID + ") FROM " + DATABASE_TABLE + " GROUP BY " + KEY_ADDRESS + ");");
+                db.execSQL(DATABASE_CREATE_ADDRESS_INDEX);
+            } else if (oldVersion == 2) {
+                for (final String sql : DATABASE_CREATE_FTS)
+                    db.execSQL(sql);
+                db.execSQL("INSERT INTO " + DATABASE_TABLE_FTS + "(" + DATABASE_TABLE_FTS + ") VALUES('rebuild');");
+            } else if (oldVersion == 3) {
                 // future
             } else {
                 throw new UnsupportedOperationException("old=" + oldVersion);
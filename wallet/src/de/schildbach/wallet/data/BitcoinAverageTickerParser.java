@@ -0,0 +1,109 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.data;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.annotation.Nullable;
+
+import org.bitcoinj.utils.Fiat;
+import org.bitcoinj.utils.MonetaryFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.squareup.moshi.JsonReader;
+
+import okio.BufferedSource;
+
+/**
+ * Streaming parser for the BitcoinAverage short ticker, which maps symbols like {@code BTCUSD} to objects containing
+ * an {@code averages} object with a {@code day} value. Everything else in the response is skipped without being
+ * materialized.
+ */
+final class BitcoinAverageTickerParser {
+    private static final String SYMBOL_PREFIX = "BTC";
+
+    private static final Logger log = LoggerFactory.getLogger(BitcoinAverageTickerParser.class);
+
+    /**
+     * @return daily average price of one bitcoin, keyed by fiat currency code
+     */
+    public static Map<String, BigDecimal> parse(final BufferedSource source) throws IOException {
+        final Map<String, BigDecimal> rates = new TreeMap<String, BigDecimal>();
+        final JsonReader reader = JsonReader.of(source);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            final String symbol = reader.nextName();
+            if (symbol.length() > SYMBOL_PREFIX.length() && symbol.startsWith(SYMBOL_PREFIX)) {
+                final String fiatCurrencyCode = symbol.substring(SYMBOL_PREFIX.length());
+                if (!fiatCurrencyCode.equals(MonetaryFormat.CODE_BTC)
+                        && !fiatCurrencyCode.equals(MonetaryFormat.CODE_MBTC)
+                        && !fiatCurrencyCode.equals(MonetaryFormat.CODE_UBTC)) {
+                    final BigDecimal rate = readDayAverage(reader, symbol);
+                    if (rate != null && rate.signum() > 0)
+                        rates.put(fiatCurrencyCode, rate);
+                    continue;
+                }
+            }
+            reader.skipValue();
+        }
+        reader.endObject();
+        return rates;
+    }
+
+    @Nullable
+    private static BigDecimal readDayAverage(final JsonReader reader, final String symbol) throws IOException {
+        BigDecimal day = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("averages") && reader.peek() == JsonReader.Token.BEGIN_OBJECT) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if (reader.nextName().equals("day") && reader.peek() != JsonReader.Token.NULL) {
+                        try {
+                            day = new BigDecimal(reader.nextString());
+                        } catch (final NumberFormatException x) {
+                            log.warn("problem parsing {} exchange rate: {}", symbol, x.getMessage());
+                        }
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return day;
+    }
+
+    /**
+     * Converts the price of one bitcoin into the price of one coin, given the price of that coin in bitcoin. The
+     * result is rounded to the smallest fiat unit.
+     */
+    public static Fiat toFiat(final String currencyCode, final BigDecimal btcRate, final BigDecimal btcConversion) {
+        final long value = btcRate.multiply(btcConversion).movePointRight(Fiat.SMALLEST_UNIT_EXPONENT)
+                .setScale(0, RoundingMode.HALF_UP).longValue();
+        return Fiat.valueOf(currencyCode, value);
+    }
+}
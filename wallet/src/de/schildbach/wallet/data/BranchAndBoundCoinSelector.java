@@ -0,0 +1,217 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import javax.annotation.Nullable;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.wallet.CoinSelection;
+import org.bitcoinj.wallet.CoinSelector;
+import org.bitcoinj.wallet.DefaultCoinSelector;
+
+/**
+ * Coin selector for large wallets. It first does a bounded branch-and-bound search for a set of outputs that adds
+ * up to the target exactly, so no change output is needed. Failing that, it selects with change, aiming for as few
+ * inputs as possible since every input adds to the fee.
+ *
+ * <p>
+ * Outputs are selectable under the same rules as with {@link DefaultCoinSelector}. Their order comes from a
+ * {@link UtxoIndex}, so they don't need to be sorted on every call.
+ * </p>
+ */
+public class BranchAndBoundCoinSelector implements CoinSelector {
+    private final UtxoIndex index;
+    private final Random random = new Random();
+
+    private static final int MAX_TRIES = 100000;
+    private static final int KNAPSACK_ROUNDS = 100;
+    private static final int KNAPSACK_WINDOW = 4;
+    private static final long MIN_CHANGE = Coin.CENT.value;
+
+    public BranchAndBoundCoinSelector(final UtxoIndex index) {
+        this.index = index;
+    }
+
+    @Override
+    public CoinSelection select(final Coin target, final List<TransactionOutput> candidates) {
+        final List<TransactionOutput> sorted = index.sorted(candidates);
+        final List<TransactionOutput> outputs = new ArrayList<TransactionOutput>(sorted.size());
+        long[] values = new long[sorted.size()];
+        long total = 0;
+        for (final TransactionOutput output : sorted) {
+            if (DefaultCoinSelector.isSelectable(output.getParentTransaction())) {
+                final long value = output.getValue().value;
+                values[outputs.size()] = value;
+                outputs.add(output);
+                total += value;
+            }
+        }
+
+        // Not enough money: hand out everything, so the caller can tell how much is missing.
+        if (total < target.value)
+            return new CoinSelection(Coin.valueOf(total), outputs);
+
+        if (values.length != outputs.size())
+            values = Arrays.copyOf(values, outputs.size());
+
+        // An exact match saves the change output now and spending it later, which is worth about one input.
+        final boolean[] fallback = fallback(values, target.value);
+        boolean[] selection = branchAndBound(values, total, target.value, count(fallback) + 1);
+        if (selection == null)
+            selection = fallback;
+
+        final List<TransactionOutput> gathered = new ArrayList<TransactionOutput>();
+        long valueGathered = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (selection[i]) {
+                gathered.add(outputs.get(i));
+                valueGathered += values[i];
+            }
+        }
+        return new CoinSelection(Coin.valueOf(valueGathered), gathered);
+    }
+
+    /**
+     * Depth-first search over inclusion and exclusion of each value, largest first.
+     *
+     * @return selection of at most {@code maxInputs} values that adds up to the target exactly, or {@code null} if
+     *         none was found within {@link #MAX_TRIES} steps
+     */
+    @Nullable
+    static boolean[] branchAndBound(final long[] values, final long total, final long target, final int maxInputs) {
+        final boolean[] selection = new boolean[values.length];
+        int depth = 0;
+        int inputs = 0;
+        long selected = 0;
+        long available = total;
+        for (int tries = 0; tries < MAX_TRIES; tries++) {
+            if (selected == target)
+                return selection;
+            if (selected + available < target || selected > target || depth == values.length
+                    || inputs == maxInputs) {
+                // backtrack to the last included value and exclude it instead
+                while (depth > 0 && !selection[depth - 1]) {
+                    depth--;
+                    available += values[depth];
+                }
+                if (depth == 0)
+                    return null; // search space exhausted
+                selection[depth - 1] = false;
+                selected -= values[depth - 1];
+                inputs--;
+            } else {
+                available -= values[depth];
+                selection[depth] = true;
+                selected += values[depth];
+                inputs++;
+                depth++;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Selection with change. Prefers the smallest single value that leaves at least {@link #MIN_CHANGE}. If no single
+     * value is large enough, the fewest largest values that cover the target are taken, and a randomized knapsack
+     * search among the values around them tries to lower the total without needing more inputs.
+     */
+    private boolean[] fallback(final long[] values, final long target) {
+        final long targetWithChange = target + MIN_CHANGE;
+        // sorted descending, so the last one that is large enough is the smallest
+        int lowestLarger = -1;
+        for (int i = 0; i < values.length && values[i] >= target; i++)
+            if (lowestLarger == -1 || values[i] >= targetWithChange)
+                lowestLarger = i;
+        if (lowestLarger >= 0)
+            return single(values.length, lowestLarger);
+
+        int inputs = 0;
+        long greedyTotal = 0;
+        while (greedyTotal < target)
+            greedyTotal += values[inputs++];
+        final boolean[] greedy = new boolean[values.length];
+        Arrays.fill(greedy, 0, inputs, true);
+
+        final boolean[] eligible = new boolean[values.length];
+        Arrays.fill(eligible, 0, Math.min(inputs * KNAPSACK_WINDOW, values.length), true);
+        final boolean[] best = approximateBestSubset(values, eligible, sum(values, eligible), targetWithChange);
+        final long bestTotal = sum(values, best);
+        return count(best) <= inputs && bestTotal >= targetWithChange && bestTotal < greedyTotal ? best : greedy;
+    }
+
+    private boolean[] approximateBestSubset(final long[] values, final boolean[] eligible, final long total,
+            final long target) {
+        boolean[] best = eligible.clone();
+        long bestTotal = total;
+        final boolean[] included = new boolean[values.length];
+        for (int round = 0; round < KNAPSACK_ROUNDS && bestTotal != target; round++) {
+            Arrays.fill(included, false);
+            long includedTotal = 0;
+            boolean reachedTarget = false;
+            for (int pass = 0; pass < 2 && !reachedTarget; pass++) {
+                for (int i = 0; i < values.length; i++) {
+                    if (!eligible[i] || included[i])
+                        continue;
+                    // first pass picks randomly, second pass fills up with the rest
+                    if (pass == 0 && !random.nextBoolean())
+                        continue;
+                    includedTotal += values[i];
+                    included[i] = true;
+                    if (includedTotal >= target) {
+                        reachedTarget = true;
+                        if (includedTotal < bestTotal) {
+                            bestTotal = includedTotal;
+                            best = included.clone();
+                        }
+                        includedTotal -= values[i];
+                        included[i] = false;
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    private static boolean[] single(final int length, final int index) {
+        final boolean[] selection = new boolean[length];
+        selection[index] = true;
+        return selection;
+    }
+
+    private static int count(final boolean[] selection) {
+        int count = 0;
+        for (final boolean selected : selection)
+            if (selected)
+                count++;
+        return count;
+    }
+
+    private static long sum(final long[] values, final boolean[] selection) {
+        long sum = 0;
+        for (int i = 0; i < values.length; i++)
+            if (selection[i])
+                sum += values[i];
+        return sum;
+    }
+}
@@ -24,14 +24,21 @@ import static com.google.common.base.Preconditions.checkNotNull;
  */
 public class ExchangeRate {
     public ExchangeRate(final org.bitcoinj.utils.ExchangeRate rate, final String source) {
+        this(rate, source, 0);
+    }
+
+    public ExchangeRate(final org.bitcoinj.utils.ExchangeRate rate, final String source, final long time) {
         checkNotNull(rate.fiat.currencyCode);
 
         this.rate = rate;
         this.source = source;
+        this.time = time;
     }
 
     public final org.bitcoinj.utils.ExchangeRate rate;
     public final String source;
+    /** Time the rate was fetched from its source, in milliseconds since epoch, or 0 if unknown. */
+    public final long time;
 
     public String getCurrencyCode() {
         return rate.fiat.currencyCode;
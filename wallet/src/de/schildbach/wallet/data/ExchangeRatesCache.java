@@ -0,0 +1,154 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.annotation.Nullable;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.utils.Fiat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Stopwatch;
+
+/**
+ * Compact on-disk snapshot of all known exchange rates, so they can be served right after a cold start.
+ *
+ * <p>
+ * Layout: version, table of distinct sources, then one record per rate consisting of currency code, coin and fiat
+ * value, source index and fetch time.
+ * </p>
+ */
+public final class ExchangeRatesCache {
+    private static final int VERSION = 1;
+    private static final int NO_SOURCE = -1;
+
+    private static final Logger log = LoggerFactory.getLogger(ExchangeRatesCache.class);
+
+    @Nullable
+    public static Map<String, ExchangeRate> load(final File file) {
+        if (!file.exists())
+            return null;
+
+        final Stopwatch watch = Stopwatch.createStarted();
+        DataInputStream is = null;
+        try {
+            is = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            final int version = is.readInt();
+            if (version != VERSION) {
+                log.info("ignoring exchange rates cache of unknown version {}", version);
+                return null;
+            }
+
+            final int numSources = is.readUnsignedByte();
+            final String[] sources = new String[numSources];
+            for (int i = 0; i < numSources; i++)
+                sources[i] = is.readUTF();
+
+            final int numRates = is.readInt();
+            final Map<String, ExchangeRate> rates = new TreeMap<String, ExchangeRate>();
+            for (int i = 0; i < numRates; i++) {
+                final String currencyCode = is.readUTF();
+                final Coin coin = Coin.valueOf(is.readLong());
+                final Fiat fiat = Fiat.valueOf(currencyCode, is.readLong());
+                final int sourceIndex = is.readByte();
+                final long time = is.readLong();
+                rates.put(currencyCode, new ExchangeRate(new org.bitcoinj.utils.ExchangeRate(coin, fiat),
+                        sourceIndex != NO_SOURCE ? sources[sourceIndex] : null, time));
+            }
+
+            watch.stop();
+            log.info("loaded {} exchange rates from '{}', took {}", rates.size(), file, watch);
+            return rates;
+        } catch (final IOException x) {
+            log.warn("problem loading exchange rates cache from '" + file + "'", x);
+            return null;
+        } catch (final RuntimeException x) {
+            log.warn("problem parsing exchange rates cache from '" + file + "'", x);
+            return null;
+        } finally {
+            if (is != null) {
+                try {
+                    is.close();
+                } catch (final IOException x) {
+                    // swallow
+                }
+            }
+        }
+    }
+
+    public static void save(final File file, final Map<String, ExchangeRate> rates) {
+        final Stopwatch watch = Stopwatch.createStarted();
+        final File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+
+        final List<String> sources = new ArrayList<String>();
+        for (final ExchangeRate rate : rates.values())
+            if (rate.source != null && !sources.contains(rate.source))
+                sources.add(rate.source);
+        if (sources.size() > Byte.MAX_VALUE)
+            throw new IllegalArgumentException("too many sources: " + sources.size());
+
+        DataOutputStream os = null;
+        try {
+            os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            os.writeInt(VERSION);
+            os.writeByte(sources.size());
+            for (final String source : sources)
+                os.writeUTF(source);
+            os.writeInt(rates.size());
+            for (final ExchangeRate rate : rates.values()) {
+                os.writeUTF(rate.getCurrencyCode());
+                os.writeLong(rate.rate.coin.value);
+                os.writeLong(rate.rate.fiat.value);
+                os.writeByte(rate.source != null ? sources.indexOf(rate.source) : NO_SOURCE);
+                os.writeLong(rate.time);
+            }
+            os.close();
+            os = null;
+
+            if (!tempFile.renameTo(file))
+                throw new IOException("cannot rename " + tempFile + " to " + file);
+
+            watch.stop();
+            log.info("saved {} exchange rates to '{}', took {}", rates.size(), file, watch);
+        } catch (final IOException x) {
+            log.warn("problem saving exchange rates cache to '" + file + "'", x);
+        } finally {
+            if (os != null) {
+                try {
+                    os.close();
+                } catch (final IOException x) {
+                    // swallow
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,334 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.utils.Fiat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Stopwatch;
+
+/**
+ * Local history of exchange rates, kept as one append-only file of fixed-width records per currency, so that fiat
+ * values of past transactions can be looked up without a network call.
+ *
+ * <p>
+ * Layout: magic and version, then one record per sample consisting of the fetch time in seconds (unsigned) and the
+ * fiat value of one coin. Records are ordered by time, so lookups are binary searches on a read-only mapping of the
+ * file. Once a file reaches {@link #MAX_RECORDS}, its older half is downsampled, which keeps each file bounded while
+ * still covering the whole history at decreasing resolution.
+ * </p>
+ */
+public final class ExchangeRatesHistory {
+    private final File dir;
+    private final Map<String, MappedByteBuffer> mappings = new HashMap<String, MappedByteBuffer>();
+    private final Map<String, Long> latestTimes = new HashMap<String, Long>();
+
+    private static final int MAGIC = 0x47525448; // "GRTH"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_SIZE = 12;
+    private static final int MAX_RECORDS = 1024;
+    private static final int COMPACTION_FACTOR = 4;
+    private static final long MIN_INTERVAL_MS = 60 * 60 * 1000; // 1 hour
+    private static final long MAX_GAP_MS = 2 * 24 * 60 * 60 * 1000; // 2 days
+
+    private static final Logger log = LoggerFactory.getLogger(ExchangeRatesHistory.class);
+
+    public ExchangeRatesHistory(final File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Appends the given rates to the history of their currencies. Rates without a fetch time, or fetched less than
+     * {@link #MIN_INTERVAL_MS} after the latest sample of their currency, are skipped.
+     */
+    public synchronized void append(final Collection<ExchangeRate> rates) {
+        final Stopwatch watch = Stopwatch.createStarted();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            log.warn("cannot create exchange rates history directory '{}'", dir);
+            return;
+        }
+
+        int numAppended = 0;
+        for (final ExchangeRate rate : rates) {
+            if (rate.time <= 0 || !CharMatcher.javaLetterOrDigit().matchesAllOf(rate.getCurrencyCode()))
+                continue;
+            final Long latestTime = latestTimes.get(rate.getCurrencyCode());
+            if (latestTime != null && rate.time - latestTime < MIN_INTERVAL_MS)
+                continue;
+            final long value = rate.rate.coinToFiat(Coin.COIN).value;
+            if (value <= 0)
+                continue;
+            try {
+                if (append(rate.getCurrencyCode(), rate.time, value))
+                    numAppended++;
+            } catch (final IOException x) {
+                log.warn("problem appending to exchange rates history of " + rate.getCurrencyCode(), x);
+            }
+        }
+
+        watch.stop();
+        if (numAppended > 0)
+            log.info("appended {} exchange rates to history, took {}", numAppended, watch);
+    }
+
+    private boolean append(final String currencyCode, final long timeMs, final long value) throws IOException {
+        final File file = file(currencyCode);
+        final long time = timeMs / 1000;
+
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            final FileChannel channel = raf.getChannel();
+            int numRecords = numRecords(channel.size());
+            if (numRecords >= 0 && !hasHeader(channel))
+                numRecords = -1;
+            if (numRecords < 0) {
+                final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC).putInt(VERSION).flip();
+                channel.truncate(0);
+                channel.write(header, 0);
+                numRecords = 0;
+            } else if (numRecords > 0) {
+                final ByteBuffer last = ByteBuffer.allocate(4);
+                channel.read(last, HEADER_SIZE + (numRecords - 1) * RECORD_SIZE);
+                final long lastTime = last.getInt(0) & 0xffffffffL;
+                latestTimes.put(currencyCode, lastTime * 1000);
+                if ((time - lastTime) * 1000 < MIN_INTERVAL_MS)
+                    return false;
+            }
+
+            if (numRecords >= MAX_RECORDS) {
+                raf.close();
+                compact(currencyCode, file);
+                return append(currencyCode, timeMs, value);
+            }
+
+            final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+            record.putInt((int) time).putLong(value).flip();
+            final long position = HEADER_SIZE + numRecords * RECORD_SIZE;
+            channel.write(record, position);
+            channel.truncate(position + RECORD_SIZE); // drop a torn record from an earlier crash
+            latestTimes.put(currencyCode, time * 1000);
+            mappings.remove(currencyCode);
+        } finally {
+            raf.close();
+        }
+        return true;
+    }
+
+    /** Replaces the older half of the records by averages over groups of {@link #COMPACTION_FACTOR}. */
+    private void compact(final String currencyCode, final File file) throws IOException {
+        final ByteBuffer buffer = map(currencyCode);
+        mappings.remove(currencyCode);
+        if (buffer == null)
+            return;
+        final int numRecords = numRecords(buffer.capacity());
+        final int numOld = numRecords / 2 / COMPACTION_FACTOR * COMPACTION_FACTOR;
+
+        final ByteBuffer compacted = ByteBuffer
+                .allocate(HEADER_SIZE + (numOld / COMPACTION_FACTOR + numRecords - numOld) * RECORD_SIZE);
+        compacted.putInt(MAGIC).putInt(VERSION);
+        for (int i = 0; i < numOld; i += COMPACTION_FACTOR) {
+            long sum = 0;
+            for (int j = i; j < i + COMPACTION_FACTOR; j++)
+                sum += value(buffer, j);
+            compacted.putInt((int) time(buffer, i)).putLong(sum / COMPACTION_FACTOR);
+        }
+        for (int i = numOld; i < numRecords; i++)
+            compacted.putInt((int) time(buffer, i)).putLong(value(buffer, i));
+        compacted.flip();
+
+        final File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        final RandomAccessFile raf = new RandomAccessFile(tempFile, "rw");
+        try {
+            raf.setLength(0);
+            raf.getChannel().write(compacted);
+        } finally {
+            raf.close();
+        }
+        if (!tempFile.renameTo(file))
+            throw new IOException("cannot rename " + tempFile + " to " + file);
+        log.info("compacted exchange rates history of {} from {} to {} records", currencyCode, numRecords,
+                numRecords(file.length()));
+    }
+
+    /**
+     * @return samples of the given currency fetched within the given time range (inclusive, in milliseconds), oldest
+     *         first
+     */
+    public synchronized List<ExchangeRate> query(final String currencyCode, final long fromMs, final long toMs) {
+        final List<ExchangeRate> rates = new ArrayList<ExchangeRate>();
+        final ByteBuffer buffer = map(currencyCode);
+        if (buffer == null)
+            return rates;
+        final int numRecords = numRecords(buffer.capacity());
+        for (int i = firstIndexAtOrAfter(buffer, numRecords, fromMs / 1000); i < numRecords; i++) {
+            final long time = time(buffer, i);
+            if (time * 1000 > toMs)
+                break;
+            rates.add(exchangeRate(currencyCode, time, value(buffer, i)));
+        }
+        return rates;
+    }
+
+    /**
+     * Like {@link #query(String, long, long)}, but with at most the given number of points. The time range is divided
+     * into equal buckets; each non-empty bucket yields the average of its samples, timed at its latest sample.
+     */
+    public synchronized List<ExchangeRate> query(final String currencyCode, final long fromMs, final long toMs,
+            final int maxPoints) {
+        if (maxPoints <= 0)
+            throw new IllegalArgumentException("maxPoints must be positive: " + maxPoints);
+        final List<ExchangeRate> rates = new ArrayList<ExchangeRate>();
+        final ByteBuffer buffer = map(currencyCode);
+        if (buffer == null || toMs < fromMs)
+            return rates;
+        final int numRecords = numRecords(buffer.capacity());
+        final long from = fromMs / 1000;
+        final long bucketSize = Math.max((toMs / 1000 - from) / maxPoints + 1, 1);
+
+        long bucket = -1, sum = 0, lastTime = 0;
+        int count = 0;
+        for (int i = firstIndexAtOrAfter(buffer, numRecords, from); i < numRecords; i++) {
+            final long time = time(buffer, i);
+            if (time * 1000 > toMs)
+                break;
+            final long timeBucket = (time - from) / bucketSize;
+            if (timeBucket != bucket && count > 0) {
+                rates.add(exchangeRate(currencyCode, lastTime, sum / count));
+                sum = 0;
+                count = 0;
+            }
+            bucket = timeBucket;
+            sum += value(buffer, i);
+            lastTime = time;
+            count++;
+        }
+        if (count > 0)
+            rates.add(exchangeRate(currencyCode, lastTime, sum / count));
+        return rates;
+    }
+
+    /**
+     * @return the sample of the given currency closest to the given time, or {@code null} if there is none within
+     *         {@link #MAX_GAP_MS}
+     */
+    @Nullable
+    public synchronized ExchangeRate rateAt(final String currencyCode, final long timeMs) {
+        final ByteBuffer buffer = map(currencyCode);
+        if (buffer == null)
+            return null;
+        final int numRecords = numRecords(buffer.capacity());
+        final long time = timeMs / 1000;
+        final int after = firstIndexAtOrAfter(buffer, numRecords, time);
+
+        int best = -1;
+        long bestGap = MAX_GAP_MS / 1000;
+        if (after < numRecords && time(buffer, after) - time <= bestGap) {
+            best = after;
+            bestGap = time(buffer, after) - time;
+        }
+        if (after > 0 && time - time(buffer, after - 1) <= bestGap)
+            best = after - 1;
+        return best >= 0 ? exchangeRate(currencyCode, time(buffer, best), value(buffer, best)) : null;
+    }
+
+    private static int firstIndexAtOrAfter(final ByteBuffer buffer, final int numRecords, final long time) {
+        int low = 0, high = numRecords;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (time(buffer, mid) < time)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    @Nullable
+    private ByteBuffer map(final String currencyCode) {
+        MappedByteBuffer buffer = mappings.get(currencyCode);
+        if (buffer != null)
+            return buffer;
+
+        final File file = file(currencyCode);
+        if (!file.exists())
+            return null;
+        try {
+            final RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                final FileChannel channel = raf.getChannel();
+                final long size = channel.size();
+                if (numRecords(size) < 0 || !hasHeader(channel))
+                    return null;
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE + numRecords(size) * RECORD_SIZE);
+            } finally {
+                raf.close();
+            }
+            mappings.put(currencyCode, buffer);
+            return buffer;
+        } catch (final IOException x) {
+            log.warn("problem mapping exchange rates history of " + currencyCode, x);
+            return null;
+        }
+    }
+
+    private static boolean hasHeader(final FileChannel channel) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        return channel.read(header, 0) == HEADER_SIZE && header.getInt(0) == MAGIC && header.getInt(4) == VERSION;
+    }
+
+    /** @return number of complete records in a file of the given size, or -1 if it cannot even hold the header */
+    private static int numRecords(final long size) {
+        return size >= HEADER_SIZE ? (int) ((size - HEADER_SIZE) / RECORD_SIZE) : -1;
+    }
+
+    private static long time(final ByteBuffer buffer, final int index) {
+        return buffer.getInt(HEADER_SIZE + index * RECORD_SIZE) & 0xffffffffL;
+    }
+
+    private static long value(final ByteBuffer buffer, final int index) {
+        return buffer.getLong(HEADER_SIZE + index * RECORD_SIZE + 4);
+    }
+
+    private static ExchangeRate exchangeRate(final String currencyCode, final long time, final long value) {
+        return new ExchangeRate(new org.bitcoinj.utils.ExchangeRate(Fiat.valueOf(currencyCode, value)), null,
+                time * 1000);
+    }
+
+    private File file(final String currencyCode) {
+        return new File(dir, currencyCode);
+    }
+}
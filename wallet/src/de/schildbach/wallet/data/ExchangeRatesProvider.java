@@ -17,45 +17,55 @@
 
 package de.schildbach.wallet.data;
 
+import java.io.File;
 import java.math.BigDecimal;
-import java.math.RoundingMode;
-import java.text.DecimalFormat;
-import java.text.DecimalFormatSymbols;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Currency;
-import java.util.Iterator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Locale;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.annotation.Nullable;
 
 import org.bitcoinj.core.Coin;
 import org.bitcoinj.utils.Fiat;
-import org.bitcoinj.utils.MonetaryFormat;
-import org.json.JSONObject;
+import org.bitcoinj.wallet.Wallet;
 import org.json.JSONArray;
+import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Stopwatch;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.squareup.okhttp.Call;
 import com.squareup.okhttp.HttpUrl;
 import com.squareup.okhttp.Request;
 import com.squareup.okhttp.Response;
+import com.squareup.okhttp.ResponseBody;
 
 import de.schildbach.wallet.Configuration;
 import de.schildbach.wallet.Constants;
 import de.schildbach.wallet.WalletApplication;
+import de.schildbach.wallet.WalletBalanceWidgetProvider;
 import de.schildbach.wallet.util.GenericUtils;
 
 import android.content.ContentProvider;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
-import android.database.MatrixCursor;
 import android.net.Uri;
 import android.preference.PreferenceManager;
-import android.provider.BaseColumns;
 import android.text.format.DateUtils;
 
 /**
@@ -64,9 +74,9 @@ import android.text.format.DateUtils;
 public class ExchangeRatesProvider extends ContentProvider {
 
     public static final String KEY_CURRENCY_CODE = "currency_code";
-    private static final String KEY_RATE_COIN = "rate_coin";
-    private static final String KEY_RATE_FIAT = "rate_fiat";
-    private static final String KEY_SOURCE = "source";
+    static final String KEY_RATE_COIN = "rate_coin";
+    static final String KEY_RATE_FIAT = "rate_fiat";
+    static final String KEY_SOURCE = "source";
 
     public static final String QUERY_PARAM_Q = "q";
     private static final String QUERY_PARAM_OFFLINE = "offline";
@@ -74,45 +84,37 @@ public class ExchangeRatesProvider extends ContentProvider {
     private Configuration config;
     private String userAgent;
 
+    private File cacheFile;
+
     @Nullable
-    private Map<String, ExchangeRate> exchangeRates = null;
-    private long lastUpdated = 0;
-	private double gltBtcConversion = -1;
-	private double gltDogeConversion = -1;
-	private double gltEsp2Conversion = -1;
-	private double gltKicConversion = -1;
-	private double gltLtcConversion = -1;
-	private double gltMoonConversion = -1;
+    private volatile ExchangeRatesSnapshot snapshot = null;
+    private volatile long lastAttempted = 0;
+    private final Map<String, Double> gltConversions = new HashMap<String, Double>();
+    private final AtomicBoolean refreshing = new AtomicBoolean(false);
 
     private static final HttpUrl BITCOINAVERAGE_URL = HttpUrl
             .parse("https://apiv2.bitcoinaverage.com/indices/global/ticker/short?crypto=BTC");
     private static final String BITCOINAVERAGE_SOURCE = "BitcoinAverage.com";
-	
+
     private static final HttpUrl COINEXCHANGE_URL = HttpUrl
             .parse("https://www.coinexchange.io/api/v1/getmarketsummary?market_id=263");
-	private static final String COINEXCHANGE_SOURCE = "Coinexchange.io";
-	
-	private static final HttpUrl NOVAEXCHANGE_URL_DOGE = HttpUrl
-            .parse("https://novaexchange.com/remote/v2/market/info/DOGE_GLT/");
-	private static final String NOVAEXCHANGE_SOURCE_DOGE = "Novaexchange.com";
-	
-	private static final HttpUrl NOVAEXCHANGE_URL_ESP2 = HttpUrl
-            .parse("https://novaexchange.com/remote/v2/market/info/ESP2_GLT/");
-	private static final String NOVAEXCHANGE_SOURCE_ESP2 = "Novaexchange.com";
-	
-	private static final HttpUrl NOVAEXCHANGE_URL_KIC = HttpUrl
-            .parse("https://novaexchange.com/remote/v2/market/info/KIC_GLT/");
-	private static final String NOVAEXCHANGE_SOURCE_KIC = "Novaexchange.com";
-	
-	private static final HttpUrl NOVAEXCHANGE_URL_LTC = HttpUrl
-            .parse("https://novaexchange.com/remote/v2/market/info/LTC_GLT/");
-	private static final String NOVAEXCHANGE_SOURCE_LTC = "Novaexchange.com";
-	
-	private static final HttpUrl NOVAEXCHANGE_URL_MOON = HttpUrl
-            .parse("https://novaexchange.com/remote/v2/market/info/MOON_GLT/");
-	private static final String NOVAEXCHANGE_SOURCE_MOON = "Novaexchange.com";
-
-    private static final long UPDATE_FREQ_MS = 10 * DateUtils.MINUTE_IN_MILLIS;
+    private static final String COINEXCHANGE_SOURCE = "Coinexchange.io";
+
+    private static final String NOVAEXCHANGE_URL = "https://novaexchange.com/remote/v2/market/info/%s_GLT/";
+    private static final String NOVAEXCHANGE_SOURCE = "Novaexchange.com";
+
+    private static final String CODE_BTC = "BTC";
+    private static final String[] NOVAEXCHANGE_CURRENCY_CODES = { "DOGE", "ESP2", "KIC", "LTC", "MOON" };
+
+    private static final long COINEXCHANGE_TTL_MS = 10 * DateUtils.MINUTE_IN_MILLIS;
+    private static final long NOVAEXCHANGE_TTL_MS = 30 * DateUtils.MINUTE_IN_MILLIS;
+    private static final long BITCOINAVERAGE_TTL_MS = 10 * DateUtils.MINUTE_IN_MILLIS;
+    private static final long RETRY_MS = DateUtils.MINUTE_IN_MILLIS;
+    private static final long FETCH_TIMEOUT_MS = 10 * DateUtils.SECOND_IN_MILLIS;
+    private static final int FETCH_MAX_THREADS = 4;
+
+    private static final ThreadPoolExecutor fetchExecutor = newExecutor(FETCH_MAX_THREADS, "exchange-rates-%d");
+    private static final ThreadPoolExecutor refreshExecutor = newExecutor(1, "exchange-rates-refresh");
 
     private static final Logger log = LoggerFactory.getLogger(ExchangeRatesProvider.class);
 
@@ -126,15 +128,35 @@ public class ExchangeRatesProvider extends ContentProvider {
         this.config = new Configuration(PreferenceManager.getDefaultSharedPreferences(context), context.getResources());
         this.userAgent = WalletApplication.httpUserAgent(WalletApplication.packageInfoFromContext(context).versionName);
 
-        final ExchangeRate cachedExchangeRate = config.getCachedExchangeRate();
-        if (cachedExchangeRate != null) {
-            exchangeRates = new TreeMap<String, ExchangeRate>();
-            exchangeRates.put(cachedExchangeRate.getCurrencyCode(), cachedExchangeRate);
+        this.cacheFile = new File(context.getFilesDir(), Constants.Files.EXCHANGE_RATES_FILENAME);
+
+        final Map<String, ExchangeRate> cachedExchangeRates = ExchangeRatesCache.load(cacheFile);
+        if (cachedExchangeRates != null) {
+            snapshot = new ExchangeRatesSnapshot(cachedExchangeRates);
+            for (final ExchangeRate exchangeRate : cachedExchangeRates.values()) {
+                final String currencyCode = exchangeRate.getCurrencyCode();
+                if (currencyCode.equals(CODE_BTC) || Arrays.asList(NOVAEXCHANGE_CURRENCY_CODES).contains(currencyCode))
+                    gltConversions.put(currencyCode,
+                            Double.valueOf(exchangeRate.rate.coinToFiat(Coin.COIN).toPlainString()));
+            }
+        } else {
+            final ExchangeRate cachedExchangeRate = config.getCachedExchangeRate();
+            if (cachedExchangeRate != null)
+                snapshot = new ExchangeRatesSnapshot(
+                        Collections.singletonMap(cachedExchangeRate.getCurrencyCode(), cachedExchangeRate));
         }
 
         return true;
     }
 
+    private static ThreadPoolExecutor newExecutor(final int maxThreads, final String nameFormat) {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads, maxThreads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactoryBuilder().setNameFormat(nameFormat).setDaemon(true).build());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
     public static Uri contentUri(final String packageName, final boolean offline) {
         final Uri.Builder uri = Uri.parse("content://" + packageName + '.' + "exchange_rates").buildUpon();
         if (offline)
@@ -149,142 +171,47 @@ public class ExchangeRatesProvider extends ContentProvider {
 
         final boolean offline = uri.getQueryParameter(QUERY_PARAM_OFFLINE) != null;
 
-        if (!offline && (lastUpdated == 0 || now - lastUpdated > UPDATE_FREQ_MS)) {
-			double newGltBtcConversion = -1;
-			double newGltDogeConversion = -1;
-			double newGltEsp2Conversion = -1;
-			double newGltKicConversion = -1;
-			double newGltLtcConversion = -1;
-			double newGltMoonConversion = -1;
-            if ((gltBtcConversion == -1))
-                newGltBtcConversion = requestGltBtcConversion();
-
-            if (newGltBtcConversion != -1)
-                gltBtcConversion = newGltBtcConversion;
-
-            if (gltBtcConversion == -1)
-				return null;
-				
-			if ((gltDogeConversion == -1))
-                newGltDogeConversion = requestGltDogeConversion();
-
-            if (newGltDogeConversion != -1)
-                gltDogeConversion = newGltDogeConversion;
-
-            if (gltDogeConversion == -1)
-				return null;
-				
-			if ((gltEsp2Conversion == -1))
-                newGltEsp2Conversion = requestGltEsp2Conversion();
-
-            if (newGltEsp2Conversion != -1)
-                gltEsp2Conversion = newGltEsp2Conversion;
-
-            if (gltEsp2Conversion == -1)
-				return null;
-				
-			if ((gltKicConversion == -1))
-                newGltKicConversion = requestGltKicConversion();
-
-            if (newGltKicConversion != -1)
-                gltKicConversion = newGltKicConversion;
-
-            if (gltKicConversion == -1)
-				return null;
-				
-			if ((gltLtcConversion == -1))
-                newGltLtcConversion = requestGltLtcConversion();
-
-            if (newGltLtcConversion != -1)
-                gltLtcConversion = newGltLtcConversion;
-
-            if (gltLtcConversion == -1)
-				return null;
-			
-			if ((gltMoonConversion == -1))
-                newGltMoonConversion = requestGltMoonConversion();
-
-            if (newGltMoonConversion != -1)
-                gltMoonConversion = newGltMoonConversion;
-
-            if (gltMoonConversion == -1)
-				return null;
-				
-            Map<String, ExchangeRate> newExchangeRates = null;
-            if (newExchangeRates == null)
-                newExchangeRates = requestExchangeRates(gltBtcConversion);
-
-            if (newExchangeRates != null) {
-				double mBTCRate = gltBtcConversion*1000;
-				double satoshirate = gltBtcConversion*1000*1000*100;
-				String strBTCRate = String.format(Locale.US, "%.8f", gltBtcConversion).replace(',', '.');
-                String strmBTCRate = String.format(Locale.US, "%.6f", mBTCRate).replace(',', '.');
-				String strsatoshiRate = String.format(Locale.US, "%.2f", satoshirate).replace(',', '.');
-				String strDogeRate = String.format(Locale.US, "%.8f", gltDogeConversion).replace(',', '.');
-				String strEsp2Rate = String.format(Locale.US, "%.8f", gltEsp2Conversion).replace(',', '.');
-				String strKicRate = String.format(Locale.US, "%.8f", gltKicConversion).replace(',', '.');
-				String strLtcRate = String.format(Locale.US, "%.8f", gltLtcConversion).replace(',', '.');
-				String strMoonRate = String.format(Locale.US, "%.8f", gltMoonConversion).replace(',', '.');
-				
-				newExchangeRates.put("BTC", new ExchangeRate(new org.bitcoinj.utils.ExchangeRate(Fiat.parseFiat("BTC", strBTCRate)), COINEXCHANGE_SOURCE));
-				newExchangeRates.put("DOGE", new ExchangeRate(new org.bitcoinj.utils.ExchangeRate(Fiat.parseFiat("DOGE", strDogeRate)), NOVAEXCHANGE_SOURCE_DOGE));
-				newExchangeRates.put("ESP2", new ExchangeRate(new org.bitcoinj.utils.ExchangeRate(Fiat.parseFiat("ESP2", strEsp2Rate)), NOVAEXCHANGE_SOURCE_ESP2));
-				newExchangeRates.put("KIC", new ExchangeRate(new org.bitcoinj.utils.ExchangeRate(Fiat.parseFiat("KIC", strKicRate)), NOVAEXCHANGE_SOURCE_KIC));
-				newExchangeRates.put("LTC", new ExchangeRate(new org.bitcoinj.utils.ExchangeRate(Fiat.parseFiat("LTC", strLtcRate)), NOVAEXCHANGE_SOURCE_LTC));
-				newExchangeRates.put("MOON", new ExchangeRate(new org.bitcoinj.utils.ExchangeRate(Fiat.parseFiat("MOON", strMoonRate)), NOVAEXCHANGE_SOURCE_MOON));
-				newExchangeRates.put("mBTC", new ExchangeRate(new org.bitcoinj.utils.ExchangeRate(Fiat.parseFiat("mBTC", strmBTCRate)), COINEXCHANGE_SOURCE));
-				newExchangeRates.put("SATOSHI", new ExchangeRate(new org.bitcoinj.utils.ExchangeRate(Fiat.parseFiat("SATOSHI", strsatoshiRate)), COINEXCHANGE_SOURCE));
-                				
-                exchangeRates = newExchangeRates;
-                lastUpdated = now;
-
-                final ExchangeRate exchangeRateToCache = bestExchangeRate(config.getExchangeCurrencyCode());
-                if (exchangeRateToCache != null)
-                    config.setCachedExchangeRate(exchangeRateToCache);
-            }
+        if (!offline && now - lastAttempted > RETRY_MS && needsRefresh(snapshot, now)) {
+            if (snapshot == null)
+                refreshExchangeRates(); // nothing to serve yet, so wait for the network
+            else
+                refreshExchangeRatesInBackground();
         }
 
-        if (exchangeRates == null || gltBtcConversion == -1)
+        // rows are served straight from the shared snapshot, nothing is copied
+        final ExchangeRatesSnapshot snapshot = this.snapshot;
+        if (snapshot == null)
             return null;
 
-        final MatrixCursor cursor = new MatrixCursor(
-                new String[] { BaseColumns._ID, KEY_CURRENCY_CODE, KEY_RATE_COIN, KEY_RATE_FIAT, KEY_SOURCE });
-
+        final Cursor cursor;
         if (selection == null) {
-            for (final Map.Entry<String, ExchangeRate> entry : exchangeRates.entrySet()) {
-                final ExchangeRate exchangeRate = entry.getValue();
-                final org.bitcoinj.utils.ExchangeRate rate = exchangeRate.rate;
-                final String currencyCode = exchangeRate.getCurrencyCode();
-                cursor.newRow().add(currencyCode.hashCode()).add(currencyCode).add(rate.coin.value).add(rate.fiat.value)
-                        .add(exchangeRate.source);
-            }
+            cursor = snapshot.cursor();
         } else if (selection.equals(QUERY_PARAM_Q)) {
             final String selectionArg = selectionArgs[0].toLowerCase(Locale.US);
-            for (final Map.Entry<String, ExchangeRate> entry : exchangeRates.entrySet()) {
-                final ExchangeRate exchangeRate = entry.getValue();
-                final org.bitcoinj.utils.ExchangeRate rate = exchangeRate.rate;
-                final String currencyCode = exchangeRate.getCurrencyCode();
+            final int[] rows = new int[snapshot.size()];
+            int numRows = 0;
+            for (int row = 0; row < snapshot.size(); row++) {
+                final String currencyCode = snapshot.currencyCode(row);
                 final String currencySymbol = GenericUtils.currencySymbol(currencyCode);
                 if (currencyCode.toLowerCase(Locale.US).contains(selectionArg)
                         || currencySymbol.toLowerCase(Locale.US).contains(selectionArg))
-                    cursor.newRow().add(currencyCode.hashCode()).add(currencyCode).add(rate.coin.value)
-                            .add(rate.fiat.value).add(exchangeRate.source);
+                    rows[numRows++] = row;
             }
+            cursor = snapshot.cursor(Arrays.copyOf(rows, numRows));
         } else if (selection.equals(KEY_CURRENCY_CODE)) {
             final String selectionArg = selectionArgs[0];
-            final ExchangeRate exchangeRate = bestExchangeRate(selectionArg);
-            if (exchangeRate != null) {
-                final org.bitcoinj.utils.ExchangeRate rate = exchangeRate.rate;
-                final String currencyCode = exchangeRate.getCurrencyCode();
-                cursor.newRow().add(currencyCode.hashCode()).add(currencyCode).add(rate.coin.value).add(rate.fiat.value)
-                        .add(exchangeRate.source);
-            }
+            final ExchangeRate exchangeRate = bestExchangeRate(snapshot.rates, selectionArg);
+            cursor = exchangeRate != null ? snapshot.cursorForRow(snapshot.indexOf(exchangeRate.getCurrencyCode()))
+                    : snapshot.cursor(new int[0]);
+        } else {
+            cursor = snapshot.cursor(new int[0]);
         }
 
+        cursor.setNotificationUri(getContext().getContentResolver(), uri);
         return cursor;
     }
 
-    private ExchangeRate bestExchangeRate(final String currencyCode) {
+    private ExchangeRate bestExchangeRate(final Map<String, ExchangeRate> exchangeRates, final String currencyCode) {
         ExchangeRate rate = currencyCode != null ? exchangeRates.get(currencyCode) : null;
         if (rate != null)
             return rate;
@@ -338,213 +265,236 @@ public class ExchangeRatesProvider extends ContentProvider {
         throw new UnsupportedOperationException();
     }
 
-    private Map<String, ExchangeRate> requestExchangeRates(double gltBtcConversion) {
-        final Stopwatch watch = Stopwatch.createStarted();
-
-        final Request.Builder request = new Request.Builder();
-        request.url(BITCOINAVERAGE_URL);
-        request.header("User-Agent", userAgent);
+    private void refreshExchangeRatesInBackground() {
+        if (!refreshing.compareAndSet(false, true))
+            return;
 
-        final Call call = Constants.HTTP_CLIENT.newCall(request.build());
-        try {
-            final Response response = call.execute();
-            if (response.isSuccessful()) {
-                final String content = response.body().string();
-                final JSONObject head = new JSONObject(content);
-                final Map<String, ExchangeRate> rates = new TreeMap<String, ExchangeRate>();
-
-                for (final Iterator<String> i = head.keys(); i.hasNext();) {
-                    final String currencyCode = i.next();
-                    if (currencyCode.startsWith("BTC")) {
-                        final String fiatCurrencyCode = currencyCode.substring(3);
-                        if (!fiatCurrencyCode.equals(MonetaryFormat.CODE_BTC)
-                                && !fiatCurrencyCode.equals(MonetaryFormat.CODE_MBTC)
-                                && !fiatCurrencyCode.equals(MonetaryFormat.CODE_UBTC)) {
-                            final JSONObject exchangeRate = head.getJSONObject(currencyCode);
-                            final JSONObject averages = exchangeRate.getJSONObject("averages");
-                            try {
-                                float value = Float.valueOf(averages.getString("day"));
-								String fetchedvalue = String.format("%.02f", value);
-								final String rate = fetchedvalue.replace(",", ".");
-								final double btcRate = Double.parseDouble(Fiat.parseFiat(fiatCurrencyCode, rate).toPlainString());
-                                DecimalFormat df = new DecimalFormat("#.########");
-                                df.setRoundingMode(RoundingMode.HALF_UP);
-                                DecimalFormatSymbols dfs = new DecimalFormatSymbols();
-                                dfs.setDecimalSeparator('.');
-                                dfs.setGroupingSeparator(',');
-                                df.setDecimalFormatSymbols(dfs);
-								final Fiat gltRate = parseFiatInexact(fiatCurrencyCode, df.format(btcRate*gltBtcConversion));
-																
-                                if (gltRate.signum() > 0)
-                                    rates.put(fiatCurrencyCode, new ExchangeRate(
-                                            new org.bitcoinj.utils.ExchangeRate(gltRate), BITCOINAVERAGE_SOURCE));
-                            } catch (final IllegalArgumentException x) {
-                                log.warn("problem fetching {} exchange rate from {}: {}", currencyCode,
-                                        BITCOINAVERAGE_URL, x.getMessage());
-                            }
-                        }
-                    }
+        refreshExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    refreshExchangeRates();
+                } finally {
+                    refreshing.set(false);
                 }
-
-                watch.stop();
-                log.info("fetched exchange rates from {}, {} chars, took {}", BITCOINAVERAGE_URL, content.length(),
-                        watch);
-
-                return rates;
-            } else {
-                log.warn("http status {} when fetching exchange rates from {}", response.code(), BITCOINAVERAGE_URL);
             }
-        } catch (final Exception x) {
-            log.warn("problem fetching exchange rates from " + BITCOINAVERAGE_URL, x);
-        }
-
-        return null;
+        });
     }
 
-    // backport from bitcoinj 0.15
-    private static Fiat parseFiatInexact(final String currencyCode, final String str) {
-        final long val = new BigDecimal(str).movePointRight(Fiat.SMALLEST_UNIT_EXPONENT).longValue();
-        return Fiat.valueOf(currencyCode, val);
+    private static boolean needsRefresh(@Nullable final ExchangeRatesSnapshot snapshot, final long now) {
+        if (snapshot == null)
+            return true;
+        final Map<String, ExchangeRate> exchangeRates = snapshot.rates;
+        if (isStale(exchangeRates.get(CODE_BTC), COINEXCHANGE_TTL_MS, now))
+            return true;
+        for (final String currencyCode : NOVAEXCHANGE_CURRENCY_CODES)
+            if (isStale(exchangeRates.get(currencyCode), NOVAEXCHANGE_TTL_MS, now))
+                return true;
+        return isBitcoinAverageStale(exchangeRates, now);
     }
-	
-	private double requestGltBtcConversion() {
-        final Request.Builder request = new Request.Builder();
-        request.url(COINEXCHANGE_URL);
-        request.header("User-Agent", userAgent);
 
-        final Call call = Constants.HTTP_CLIENT.newCall(request.build());
-        try {
-            final Response response = call.execute();
-            if (response.isSuccessful()) {
-                final String content = response.body().string();
-                try {
-                    final JSONObject json = new JSONObject(content);
-					final JSONObject lastprice = json.getJSONObject("result");
-                    boolean success = json.getString("success").equals("1");
-                    if (!success) {
-                        return -1;
-                    }
-                    return Double.valueOf(lastprice.getString("LastPrice"));
-                } catch (NumberFormatException e) {
-                    log.warn("Couldn't get the current exchange rate from coinexchange.");
-                    return -1;
-                }
+    private static boolean isStale(@Nullable final ExchangeRate exchangeRate, final long ttl, final long now) {
+        return exchangeRate == null || now - exchangeRate.time > ttl;
+    }
 
-            } else {
-                log.warn("http status {} when fetching exchange rates from {}", response.code(), COINEXCHANGE_URL);
+    private static boolean isBitcoinAverageStale(final Map<String, ExchangeRate> exchangeRates, final long now) {
+        boolean found = false;
+        for (final ExchangeRate exchangeRate : exchangeRates.values()) {
+            if (BITCOINAVERAGE_SOURCE.equals(exchangeRate.source)) {
+                if (isStale(exchangeRate, BITCOINAVERAGE_TTL_MS, now))
+                    return true;
+                found = true;
             }
-        } catch (final Exception x) {
-            log.warn("problem reading exchange rates", x);
         }
+        return !found;
+    }
 
-        return -1;
-	}
-	
-	private double requestGltDogeConversion() {
-        final Request.Builder request = new Request.Builder();
-        request.url(NOVAEXCHANGE_URL_DOGE);
-        request.header("User-Agent", userAgent);
+    /**
+     * Fetches all sources whose rates have outlived their TTL, publishes what arrived as a new snapshot and notifies
+     * observers if any rate actually changed.
+     */
+    private synchronized void refreshExchangeRates() {
+        final long now = System.currentTimeMillis();
+        final ExchangeRatesSnapshot currentSnapshot = snapshot;
 
-        final Call call = Constants.HTTP_CLIENT.newCall(request.build());
-        try {
-            final Response response = call.execute();
-            if (response.isSuccessful()) {
-                final String content = response.body().string();
-                try {
-                    final JSONObject json = new JSONObject(content);
-                    boolean success = json.getString("status").equals("success");
-					JSONArray traderesult = json.getJSONArray("markets");
-					JSONObject finaltraderesult = traderesult.getJSONObject(0);
-                    if (!success) {
-                        return -1;
-                    }
-                    return Double.valueOf(finaltraderesult.getString("last_price"));
-                } catch (NumberFormatException e) {
-                    log.warn("Couldn't get the current exchange rate from novaexchange (DOGE).");
-                    return -1;
-                }
+        // another query might have refreshed while we were waiting for the lock
+        if (!needsRefresh(currentSnapshot, now))
+            return;
+        final Map<String, ExchangeRate> currentExchangeRates = currentSnapshot != null ? currentSnapshot.rates
+                : null;
+        lastAttempted = now;
 
+        final Stopwatch watch = Stopwatch.createStarted();
+
+        // fan out: all stale sources are requested concurrently
+        final Map<String, Future<Double>> conversionFutures = new LinkedHashMap<String, Future<Double>>();
+        final boolean fetchCoinexchange = currentExchangeRates == null
+                || isStale(currentExchangeRates.get(CODE_BTC), COINEXCHANGE_TTL_MS, now);
+        if (fetchCoinexchange) {
+            conversionFutures.put(CODE_BTC, fetchExecutor.submit(new Callable<Double>() {
+                @Override
+                public Double call() throws Exception {
+                    return requestCoinexchangeConversion();
+                }
+            }));
+        }
+        for (final String currencyCode : NOVAEXCHANGE_CURRENCY_CODES) {
+            if (currentExchangeRates == null
+                    || isStale(currentExchangeRates.get(currencyCode), NOVAEXCHANGE_TTL_MS, now)) {
+                conversionFutures.put(currencyCode, fetchExecutor.submit(new Callable<Double>() {
+                    @Override
+                    public Double call() throws Exception {
+                        return requestNovaexchangeConversion(currencyCode);
+                    }
+                }));
+            }
+        }
+        // fiat rates are derived from the GLT/BTC conversion, so refresh them along with it
+        final boolean fetchBitcoinAverage = fetchCoinexchange
+                || isBitcoinAverageStale(currentExchangeRates, now);
+        final Future<Map<String, BigDecimal>> btcRatesFuture = fetchBitcoinAverage
+                ? fetchExecutor.submit(new Callable<Map<String, BigDecimal>>() {
+                    @Override
+                    public Map<String, BigDecimal> call() throws Exception {
+                        return requestBtcExchangeRates();
+                    }
+                }) : null;
+        final int numFetched = conversionFutures.size() + (fetchBitcoinAverage ? 1 : 0);
+
+        // fan in: every source gets the same timeout, counted from submission
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(FETCH_TIMEOUT_MS);
+        final Map<String, ExchangeRate> newExchangeRates = new TreeMap<String, ExchangeRate>();
+        if (currentExchangeRates != null)
+            newExchangeRates.putAll(currentExchangeRates);
+        int numArrived = 0;
+
+        for (final Map.Entry<String, Future<Double>> entry : conversionFutures.entrySet()) {
+            final String currencyCode = entry.getKey();
+            final Double conversion = awaitFetch(entry.getValue(), deadline, currencyCode);
+            if (conversion == null)
+                continue;
+
+            numArrived++;
+            gltConversions.put(currencyCode, conversion);
+            if (currencyCode.equals(CODE_BTC)) {
+                putConversion(newExchangeRates, CODE_BTC, "%.8f", conversion, COINEXCHANGE_SOURCE, now);
+                putConversion(newExchangeRates, "mBTC", "%.6f", conversion * 1000, COINEXCHANGE_SOURCE, now);
+                putConversion(newExchangeRates, "SATOSHI", "%.2f", conversion * 1000 * 1000 * 100,
+                        COINEXCHANGE_SOURCE, now);
             } else {
-                log.warn("http status {} when fetching exchange rates from {}", response.code(), NOVAEXCHANGE_URL_DOGE);
+                putConversion(newExchangeRates, currencyCode, "%.8f", conversion, NOVAEXCHANGE_SOURCE, now);
             }
-        } catch (final Exception x) {
-            log.warn("problem reading exchange rates", x);
         }
 
-        return -1;
-	}
-	
-	private double requestGltEsp2Conversion() {
-        final Request.Builder request = new Request.Builder();
-        request.url(NOVAEXCHANGE_URL_ESP2);
-        request.header("User-Agent", userAgent);
+        if (btcRatesFuture != null) {
+            final Map<String, BigDecimal> btcRates = awaitFetch(btcRatesFuture, deadline, BITCOINAVERAGE_SOURCE);
+            final Double gltBtcConversion = gltConversions.get(CODE_BTC);
+            if (btcRates != null && gltBtcConversion != null) {
+                numArrived++;
+                newExchangeRates.putAll(gltExchangeRates(btcRates, BigDecimal.valueOf(gltBtcConversion), now));
+            }
+        }
 
-        final Call call = Constants.HTTP_CLIENT.newCall(request.build());
+        watch.stop();
+        log.info("fetched {} of {} exchange rate sources, took {}", numArrived, numFetched, watch);
+
+        if (numArrived == 0)
+            return;
+
+        final ExchangeRatesSnapshot newSnapshot = new ExchangeRatesSnapshot(newExchangeRates);
+        snapshot = newSnapshot;
+        ExchangeRatesCache.save(cacheFile, newExchangeRates);
+        ((WalletApplication) getContext().getApplicationContext()).getExchangeRatesHistory()
+                .append(newExchangeRates.values());
+
+        final ExchangeRate exchangeRateToCache = bestExchangeRate(newExchangeRates,
+                config.getExchangeCurrencyCode());
+        if (exchangeRateToCache != null)
+            config.setCachedExchangeRate(exchangeRateToCache);
+
+        if (!newSnapshot.sameRatesAs(currentSnapshot)) {
+            final Context context = getContext();
+            context.getContentResolver().notifyChange(contentUri(context.getPackageName(), false), null);
+
+            final Wallet wallet = ((WalletApplication) context.getApplicationContext()).getWallet();
+            if (wallet != null)
+                WalletBalanceWidgetProvider.updateWidgets(context, wallet);
+        }
+    }
+
+    @Nullable
+    private static <T> T awaitFetch(final Future<T> future, final long deadline, final String name) {
         try {
-            final Response response = call.execute();
-            if (response.isSuccessful()) {
-                final String content = response.body().string();
-                try {
-                    final JSONObject json = new JSONObject(content);
-                    boolean success = json.getString("status").equals("success");
-					JSONArray traderesult = json.getJSONArray("markets");
-					JSONObject finaltraderesult = traderesult.getJSONObject(0);
-                    if (!success) {
-                        return -1;
-                    }
-                    return Double.valueOf(finaltraderesult.getString("last_price"));
-                } catch (NumberFormatException e) {
-                    log.warn("Couldn't get the current exchange rate from novaexchange (ESP2).");
-                    return -1;
-                }
+            return future.get(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+        } catch (final TimeoutException x) {
+            log.warn("timeout fetching exchange rate {}, skipping", name);
+            future.cancel(true);
+        } catch (final InterruptedException x) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+        } catch (final ExecutionException x) {
+            log.warn("problem fetching exchange rate " + name, x.getCause());
+        }
+        return null;
+    }
 
-            } else {
-                log.warn("http status {} when fetching exchange rates from {}", response.code(), NOVAEXCHANGE_URL_ESP2);
-            }
-        } catch (final Exception x) {
-            log.warn("problem reading exchange rates", x);
+    private static void putConversion(final Map<String, ExchangeRate> rates, final String currencyCode,
+            final String format, final double conversion, final String source, final long time) {
+        final String rate = String.format(Locale.US, format, conversion);
+        rates.put(currencyCode, new ExchangeRate(
+                new org.bitcoinj.utils.ExchangeRate(Fiat.parseFiat(currencyCode, rate)), source, time));
+    }
+
+    private static Map<String, ExchangeRate> gltExchangeRates(final Map<String, BigDecimal> btcRates,
+            final BigDecimal gltBtcConversion, final long time) {
+        final Map<String, ExchangeRate> rates = new TreeMap<String, ExchangeRate>();
+        for (final Map.Entry<String, BigDecimal> entry : btcRates.entrySet()) {
+            final Fiat gltRate = BitcoinAverageTickerParser.toFiat(entry.getKey(), entry.getValue(), gltBtcConversion);
+            if (gltRate.signum() > 0)
+                rates.put(entry.getKey(), new ExchangeRate(new org.bitcoinj.utils.ExchangeRate(gltRate),
+                        BITCOINAVERAGE_SOURCE, time));
         }
+        return rates;
+    }
+
+    @Nullable
+    private Map<String, BigDecimal> requestBtcExchangeRates() {
+        final Stopwatch watch = Stopwatch.createStarted();
 
-        return -1;
-	}
-	
-	private double requestGltKicConversion() {
         final Request.Builder request = new Request.Builder();
-        request.url(NOVAEXCHANGE_URL_KIC);
+        request.url(BITCOINAVERAGE_URL);
         request.header("User-Agent", userAgent);
 
         final Call call = Constants.HTTP_CLIENT.newCall(request.build());
         try {
             final Response response = call.execute();
             if (response.isSuccessful()) {
-                final String content = response.body().string();
+                final ResponseBody body = response.body();
+                final Map<String, BigDecimal> rates;
                 try {
-                    final JSONObject json = new JSONObject(content);
-                    boolean success = json.getString("status").equals("success");
-					JSONArray traderesult = json.getJSONArray("markets");
-					JSONObject finaltraderesult = traderesult.getJSONObject(0);
-                    if (!success) {
-                        return -1;
-                    }
-                    return Double.valueOf(finaltraderesult.getString("last_price"));
-                } catch (NumberFormatException e) {
-                    log.warn("Couldn't get the current exchange rate from novaexchange (KIC).");
-                    return -1;
+                    rates = BitcoinAverageTickerParser.parse(body.source());
+                } finally {
+                    body.close();
                 }
 
+                watch.stop();
+                log.info("fetched {} exchange rates from {}, took {}", rates.size(), BITCOINAVERAGE_URL, watch);
+
+                return rates;
             } else {
-                log.warn("http status {} when fetching exchange rates from {}", response.code(), NOVAEXCHANGE_URL_KIC);
+                log.warn("http status {} when fetching exchange rates from {}", response.code(), BITCOINAVERAGE_URL);
             }
         } catch (final Exception x) {
-            log.warn("problem reading exchange rates", x);
+            log.warn("problem fetching exchange rates from " + BITCOINAVERAGE_URL, x);
         }
 
-        return -1;
-	}
-	
-	private double requestGltLtcConversion() {
+        return null;
+    }
+
+    @Nullable
+    private Double requestCoinexchangeConversion() {
         final Request.Builder request = new Request.Builder();
-        request.url(NOVAEXCHANGE_URL_LTC);
+        request.url(COINEXCHANGE_URL);
         request.header("User-Agent", userAgent);
 
         final Call call = Constants.HTTP_CLIENT.newCall(request.build());
@@ -554,31 +504,30 @@ public class ExchangeRatesProvider extends ContentProvider {
                 final String content = response.body().string();
                 try {
                     final JSONObject json = new JSONObject(content);
-                    boolean success = json.getString("status").equals("success");
-					JSONArray traderesult = json.getJSONArray("markets");
-					JSONObject finaltraderesult = traderesult.getJSONObject(0);
-                    if (!success) {
-                        return -1;
-                    }
-                    return Double.valueOf(finaltraderesult.getString("last_price"));
-                } catch (NumberFormatException e) {
-                    log.warn("Couldn't get the current exchange rate from novaexchange (LTC).");
-                    return -1;
+                    final JSONObject lastprice = json.getJSONObject("result");
+                    final boolean success = json.getString("success").equals("1");
+                    if (!success)
+                        return null;
+                    return Double.valueOf(lastprice.getString("LastPrice"));
+                } catch (final NumberFormatException x) {
+                    log.warn("Couldn't get the current exchange rate from coinexchange.");
+                    return null;
                 }
-
             } else {
-                log.warn("http status {} when fetching exchange rates from {}", response.code(), NOVAEXCHANGE_URL_LTC);
+                log.warn("http status {} when fetching exchange rates from {}", response.code(), COINEXCHANGE_URL);
             }
         } catch (final Exception x) {
             log.warn("problem reading exchange rates", x);
         }
 
-        return -1;
-	}
-	
-	private double requestGltMoonConversion() {
+        return null;
+    }
+
+    @Nullable
+    private Double requestNovaexchangeConversion(final String currencyCode) {
+        final HttpUrl url = HttpUrl.parse(String.format(Locale.US, NOVAEXCHANGE_URL, currencyCode));
         final Request.Builder request = new Request.Builder();
-        request.url(NOVAEXCHANGE_URL_MOON);
+        request.url(url);
         request.header("User-Agent", userAgent);
 
         final Call call = Constants.HTTP_CLIENT.newCall(request.build());
@@ -588,25 +537,23 @@ public class ExchangeRatesProvider extends ContentProvider {
                 final String content = response.body().string();
                 try {
                     final JSONObject json = new JSONObject(content);
-                    boolean success = json.getString("status").equals("success");
-					JSONArray traderesult = json.getJSONArray("markets");
-					JSONObject finaltraderesult = traderesult.getJSONObject(0);
-                    if (!success) {
-                        return -1;
-                    }
+                    final boolean success = json.getString("status").equals("success");
+                    if (!success)
+                        return null;
+                    final JSONArray traderesult = json.getJSONArray("markets");
+                    final JSONObject finaltraderesult = traderesult.getJSONObject(0);
                     return Double.valueOf(finaltraderesult.getString("last_price"));
-                } catch (NumberFormatException e) {
-                    log.warn("Couldn't get the current exchange rate from novaexchange (MOON).");
-                    return -1;
+                } catch (final NumberFormatException x) {
+                    log.warn("Couldn't get the current exchange rate from novaexchange ({}).", currencyCode);
+                    return null;
                 }
-
             } else {
-                log.warn("http status {} when fetching exchange rates from {}", response.code(), NOVAEXCHANGE_URL_MOON);
+                log.warn("http status {} when fetching exchange rates from {}", response.code(), url);
             }
         } catch (final Exception x) {
             log.warn("problem reading exchange rates", x);
         }
 
-        return -1;
-	}
-}
\ No newline at end of file
+        return null;
+    }
+}
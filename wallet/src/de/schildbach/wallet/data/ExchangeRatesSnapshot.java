@@ -0,0 +1,207 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.data;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.google.common.base.Objects;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.provider.BaseColumns;
+
+/**
+ * Immutable set of exchange rates, laid out in columns so that cursors over it can be handed out without copying.
+ */
+final class ExchangeRatesSnapshot {
+    public final Map<String, ExchangeRate> rates;
+
+    private final String[] currencyCodes; // sorted, as in the rates map
+    private final long[] rateCoins;
+    private final long[] rateFiats;
+    private final String[] sources;
+    private final int[] allRows;
+    private final int[][] singleRows;
+
+    public ExchangeRatesSnapshot(final Map<String, ExchangeRate> rates) {
+        final Map<String, ExchangeRate> sortedRates = new TreeMap<String, ExchangeRate>(rates);
+        this.rates = Collections.unmodifiableMap(sortedRates);
+
+        final int size = sortedRates.size();
+        this.currencyCodes = new String[size];
+        this.rateCoins = new long[size];
+        this.rateFiats = new long[size];
+        this.sources = new String[size];
+        this.allRows = new int[size];
+        this.singleRows = new int[size][];
+        int i = 0;
+        for (final ExchangeRate exchangeRate : sortedRates.values()) {
+            currencyCodes[i] = exchangeRate.getCurrencyCode();
+            rateCoins[i] = exchangeRate.rate.coin.value;
+            rateFiats[i] = exchangeRate.rate.fiat.value;
+            sources[i] = exchangeRate.source;
+            allRows[i] = i;
+            singleRows[i] = new int[] { i };
+            i++;
+        }
+    }
+
+    public int size() {
+        return currencyCodes.length;
+    }
+
+    public String currencyCode(final int row) {
+        return currencyCodes[row];
+    }
+
+    /** @return row of the given currency, or -1 if there is none */
+    public int indexOf(final String currencyCode) {
+        final int row = Arrays.binarySearch(currencyCodes, currencyCode);
+        return row >= 0 ? row : -1;
+    }
+
+    /**
+     * Compares rates and sources, but not fetch times: a refresh that yielded the same values is not a change to
+     * consumers.
+     */
+    public boolean sameRatesAs(final ExchangeRatesSnapshot other) {
+        if (other == null)
+            return false;
+        if (!Arrays.equals(currencyCodes, other.currencyCodes) || !Arrays.equals(rateCoins, other.rateCoins)
+                || !Arrays.equals(rateFiats, other.rateFiats))
+            return false;
+        for (int i = 0; i < sources.length; i++)
+            if (!Objects.equal(sources[i], other.sources[i]))
+                return false;
+        return true;
+    }
+
+    /** @return cursor over all rates, with the columns of {@link #COLUMNS} */
+    public Cursor cursor() {
+        return new SnapshotCursor(allRows);
+    }
+
+    /** @return cursor over the given rows, with the columns of {@link #COLUMNS} */
+    public Cursor cursor(final int[] rows) {
+        return new SnapshotCursor(rows);
+    }
+
+    /** @return cursor over just the given row, with the columns of {@link #COLUMNS} */
+    public Cursor cursorForRow(final int row) {
+        return new SnapshotCursor(singleRows[row]);
+    }
+
+    public static final String[] COLUMNS = { BaseColumns._ID, ExchangeRatesProvider.KEY_CURRENCY_CODE,
+            ExchangeRatesProvider.KEY_RATE_COIN, ExchangeRatesProvider.KEY_RATE_FIAT,
+            ExchangeRatesProvider.KEY_SOURCE };
+    private static final int COLUMN_ID = 0;
+    private static final int COLUMN_CURRENCY_CODE = 1;
+    private static final int COLUMN_RATE_COIN = 2;
+    private static final int COLUMN_RATE_FIAT = 3;
+    private static final int COLUMN_SOURCE = 4;
+
+    private class SnapshotCursor extends AbstractCursor {
+        private final int[] rows;
+
+        public SnapshotCursor(final int[] rows) {
+            this.rows = rows;
+        }
+
+        @Override
+        public int getCount() {
+            return rows.length;
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return COLUMNS;
+        }
+
+        private int row() {
+            if (mPos < 0 || mPos >= rows.length)
+                throw new IllegalStateException("cursor not on a row: " + mPos);
+            return rows[mPos];
+        }
+
+        @Override
+        public String getString(final int column) {
+            final int row = row();
+            switch (column) {
+            case COLUMN_CURRENCY_CODE:
+                return currencyCodes[row];
+            case COLUMN_SOURCE:
+                return sources[row];
+            default:
+                return Long.toString(getLong(column));
+            }
+        }
+
+        @Override
+        public long getLong(final int column) {
+            final int row = row();
+            switch (column) {
+            case COLUMN_ID:
+                return currencyCodes[row].hashCode();
+            case COLUMN_RATE_COIN:
+                return rateCoins[row];
+            case COLUMN_RATE_FIAT:
+                return rateFiats[row];
+            default:
+                throw new IllegalArgumentException("not a numeric column: " + COLUMNS[column]);
+            }
+        }
+
+        @Override
+        public int getInt(final int column) {
+            return (int) getLong(column);
+        }
+
+        @Override
+        public short getShort(final int column) {
+            return (short) getLong(column);
+        }
+
+        @Override
+        public float getFloat(final int column) {
+            return getLong(column);
+        }
+
+        @Override
+        public double getDouble(final int column) {
+            return getLong(column);
+        }
+
+        @Override
+        public boolean isNull(final int column) {
+            return column == COLUMN_SOURCE && sources[row()] == null;
+        }
+
+        @Override
+        public int getType(final int column) {
+            if (column == COLUMN_CURRENCY_CODE)
+                return Cursor.FIELD_TYPE_STRING;
+            else if (column == COLUMN_SOURCE)
+                return sources[row()] != null ? Cursor.FIELD_TYPE_STRING : Cursor.FIELD_TYPE_NULL;
+            else
+                return Cursor.FIELD_TYPE_INTEGER;
+        }
+    }
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Sha256Hash;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.schildbach.wallet.ui.send.FeeCategory;
+
+import android.text.format.DateUtils;
+
+/**
+ * Estimates fees per {@link FeeCategory} from transactions observed on the network: when each was first seen, and
+ * how long it took until it was included in a block at which fee rate.
+ *
+ * <p>
+ * Samples go into a fixed set of exponentially spaced fee rate buckets. Counters decay by {@link #DECAY} with every
+ * block, so old observations fade out. For a category, the estimate is the lowest bucket such that, counting
+ * downwards from the highest fee rate, enough samples confirmed within the category's target time. All methods are
+ * cheap enough to be called from the peer thread.
+ * </p>
+ *
+ * <p>
+ * Samples take many blocks to accumulate, so the counters and the pending sightings are kept in a small versioned
+ * file. It is loaded on first use and replaced after every sample and every block.
+ * </p>
+ */
+public class FeeEstimator {
+    private final File file;
+    private boolean loaded = false;
+    private final Map<Sha256Hash, Long> firstSeen = new LinkedHashMap<Sha256Hash, Long>() {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Sha256Hash, Long> eldest) {
+            return size() > MAX_PENDING;
+        }
+    };
+    private final Set<Sha256Hash> ignored = Collections.newSetFromMap(new LinkedHashMap<Sha256Hash, Boolean>() {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Sha256Hash, Boolean> eldest) {
+            return size() > MAX_PENDING;
+        }
+    });
+    private final double[] totals = new double[NUM_BUCKETS];
+    private final double[][] confirmedWithinTarget = new double[FeeCategory.values().length][NUM_BUCKETS];
+
+    private static final long MIN_BUCKET = 1000; // satoshis per kB
+    private static final double BUCKET_SPACING = 1.25;
+    private static final int NUM_BUCKETS = 42;
+    private static final double DECAY = 0.998;
+    private static final double MIN_SAMPLES = 5;
+    private static final int MAX_PENDING = 1000;
+
+    private static final int MAGIC = 0x47524645; // "GRFE"
+    private static final int VERSION = 1;
+
+    private static final long[] TARGET_MS = new long[FeeCategory.values().length];
+    private static final double[] SUCCESS_RATIO = new double[FeeCategory.values().length];
+
+    static {
+        target(FeeCategory.ECONOMIC, DateUtils.DAY_IN_MILLIS, 0.85);
+        target(FeeCategory.NORMAL, 15 * DateUtils.MINUTE_IN_MILLIS, 0.85);
+        target(FeeCategory.PRIORITY, 15 * DateUtils.MINUTE_IN_MILLIS, 0.95);
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(FeeEstimator.class);
+
+    public FeeEstimator(final File file) {
+        this.file = file;
+    }
+
+    private static void target(final FeeCategory category, final long targetMs, final double successRatio) {
+        TARGET_MS[category.ordinal()] = targetMs;
+        SUCCESS_RATIO[category.ordinal()] = successRatio;
+    }
+
+    /**
+     * Records the time a transaction was first seen unconfirmed. Later sightings of the same transaction are ignored.
+     */
+    public synchronized void seen(final Sha256Hash hash, final long timeMs) {
+        load();
+        if (!firstSeen.containsKey(hash))
+            firstSeen.put(hash, timeMs);
+    }
+
+    /**
+     * Excludes a transaction from sampling, because its fee rate was taken from this estimator. Sampling it would
+     * only confirm the estimate rather than measure the network.
+     */
+    public synchronized void ignore(final Sha256Hash hash) {
+        load();
+        ignored.add(hash);
+    }
+
+    /**
+     * Records the inclusion of a transaction into a block. Ignored if the transaction was never seen unconfirmed or
+     * was excluded by {@link #ignore(Sha256Hash)}.
+     *
+     * @param feePerKb
+     *            fee rate the transaction paid
+     * @param blockTimeMs
+     *            time of the block it was included in
+     */
+    public synchronized void confirmed(final Sha256Hash hash, final Coin feePerKb, final long blockTimeMs) {
+        load();
+        final Long seenMs = firstSeen.remove(hash);
+        if (seenMs == null || ignored.remove(hash))
+            return;
+
+        final long delayMs = Math.max(blockTimeMs - seenMs, 0);
+        final int bucket = bucket(feePerKb.value);
+        totals[bucket]++;
+        for (final FeeCategory category : FeeCategory.values())
+            if (delayMs <= TARGET_MS[category.ordinal()])
+                confirmedWithinTarget[category.ordinal()][bucket]++;
+        save();
+    }
+
+    /** Lets all samples fade by one step. To be called once per block. */
+    public synchronized void block() {
+        load();
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            totals[i] *= DECAY;
+            for (final double[] confirmed : confirmedWithinTarget)
+                confirmed[i] *= DECAY;
+        }
+        save();
+    }
+
+    /**
+     * @return fee per kB for the given category, or {@code null} if there are not enough samples
+     */
+    @Nullable
+    public synchronized Coin estimate(final FeeCategory category) {
+        load();
+        final double[] confirmed = confirmedWithinTarget[category.ordinal()];
+        final double successRatio = SUCCESS_RATIO[category.ordinal()];
+        double rangeTotal = 0, rangeConfirmed = 0;
+        int bestBucket = -1;
+        for (int i = NUM_BUCKETS - 1; i >= 0; i--) {
+            rangeTotal += totals[i];
+            rangeConfirmed += confirmed[i];
+            if (rangeTotal >= MIN_SAMPLES) {
+                if (rangeConfirmed / rangeTotal < successRatio)
+                    break;
+                bestBucket = i;
+                rangeTotal = 0;
+                rangeConfirmed = 0;
+            }
+        }
+        return bestBucket >= 0 ? Coin.valueOf(bucketFloor(bestBucket)) : null;
+    }
+
+    /**
+     * @return fees per kB of all categories that have enough samples
+     */
+    public synchronized Map<FeeCategory, Coin> estimates() {
+        final Map<FeeCategory, Coin> estimates = new EnumMap<FeeCategory, Coin>(FeeCategory.class);
+        for (final FeeCategory category : FeeCategory.values()) {
+            final Coin estimate = estimate(category);
+            if (estimate != null)
+                estimates.put(category, estimate);
+        }
+        return estimates;
+    }
+
+    private void load() {
+        if (loaded)
+            return;
+        loaded = true;
+        try {
+            final DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (is.readInt() != MAGIC)
+                    throw new IOException("not a fee estimator file: " + file);
+                final int version = is.readInt();
+                if (version != VERSION)
+                    throw new IOException("unsupported fee estimator file version " + version + ": " + file);
+                final int numBuckets = is.readInt();
+                final int numCategories = is.readInt();
+                if (numBuckets != NUM_BUCKETS || numCategories != confirmedWithinTarget.length)
+                    throw new IOException("unsupported fee buckets " + numBuckets + "/" + numCategories + ": " + file);
+                final double[] totals = new double[NUM_BUCKETS];
+                final double[][] confirmedWithinTarget = new double[numCategories][NUM_BUCKETS];
+                for (int i = 0; i < NUM_BUCKETS; i++)
+                    totals[i] = is.readDouble();
+                for (final double[] confirmed : confirmedWithinTarget)
+                    for (int i = 0; i < NUM_BUCKETS; i++)
+                        confirmed[i] = is.readDouble();
+                final Map<Sha256Hash, Long> firstSeen = new LinkedHashMap<Sha256Hash, Long>();
+                final int numPending = is.readInt();
+                if (numPending < 0 || numPending > MAX_PENDING)
+                    throw new IOException("illegal number of pending transactions " + numPending + ": " + file);
+                for (int i = 0; i < numPending; i++)
+                    firstSeen.put(readHash(is), is.readLong());
+                final Set<Sha256Hash> ignored = new LinkedHashSet<Sha256Hash>();
+                final int numIgnored = is.readInt();
+                if (numIgnored < 0 || numIgnored > MAX_PENDING)
+                    throw new IOException("illegal number of ignored transactions " + numIgnored + ": " + file);
+                for (int i = 0; i < numIgnored; i++)
+                    ignored.add(readHash(is));
+
+                // only take over a completely read file
+                System.arraycopy(totals, 0, this.totals, 0, NUM_BUCKETS);
+                for (int c = 0; c < numCategories; c++)
+                    System.arraycopy(confirmedWithinTarget[c], 0, this.confirmedWithinTarget[c], 0, NUM_BUCKETS);
+                this.firstSeen.putAll(firstSeen);
+                this.ignored.addAll(ignored);
+                log.info("loaded fee estimator samples from {}", file);
+            } finally {
+                is.close();
+            }
+        } catch (final FileNotFoundException x) {
+            // nothing sampled yet
+        } catch (final IOException x) {
+            log.warn("problem loading fee estimator samples from " + file, x);
+        }
+    }
+
+    private void save() {
+        final File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        try {
+            final DataOutputStream os = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tempFile)));
+            try {
+                os.writeInt(MAGIC);
+                os.writeInt(VERSION);
+                os.writeInt(NUM_BUCKETS);
+                os.writeInt(confirmedWithinTarget.length);
+                for (final double total : totals)
+                    os.writeDouble(total);
+                for (final double[] confirmed : confirmedWithinTarget)
+                    for (final double value : confirmed)
+                        os.writeDouble(value);
+                os.writeInt(firstSeen.size());
+                for (final Map.Entry<Sha256Hash, Long> entry : firstSeen.entrySet()) {
+                    os.write(entry.getKey().getBytes());
+                    os.writeLong(entry.getValue());
+                }
+                os.writeInt(ignored.size());
+                for (final Sha256Hash hash : ignored)
+                    os.write(hash.getBytes());
+            } finally {
+                os.close();
+            }
+            if (!tempFile.renameTo(file))
+                throw new IOException("cannot rename " + tempFile + " to " + file);
+        } catch (final IOException x) {
+            log.warn("problem saving fee estimator samples to " + file, x);
+        }
+    }
+
+    private static Sha256Hash readHash(final DataInputStream is) throws IOException {
+        final byte[] hash = new byte[Sha256Hash.LENGTH];
+        is.readFully(hash);
+        return Sha256Hash.wrap(hash);
+    }
+
+    private static int bucket(final long feePerKb) {
+        if (feePerKb <= MIN_BUCKET)
+            return 0;
+        final int bucket = (int) (Math.log((double) feePerKb / MIN_BUCKET) / Math.log(BUCKET_SPACING));
+        return Math.min(bucket, NUM_BUCKETS - 1);
+    }
+
+    private static long bucketFloor(final int bucket) {
+        return (long) Math.ceil(MIN_BUCKET * Math.pow(BUCKET_SPACING, bucket));
+    }
+}
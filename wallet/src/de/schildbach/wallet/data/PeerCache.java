@@ -0,0 +1,230 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.data;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.net.InetAddresses;
+
+import android.text.format.DateUtils;
+
+/**
+ * Small on-disk address book of peers that recently served us well, so peer discovery can offer them before asking
+ * the DNS seeds. Per peer it keeps the round trip time, the number of sessions in a row that ended prematurely, and
+ * the rate at which the peer served blocks. Peers that were not connected for {@link #MAX_AGE_MS} or failed
+ * {@link #MAX_FAILURES} times in a row are dropped.
+ */
+public final class PeerCache {
+    private final File file;
+    private final Map<InetSocketAddress, Entry> entries = new HashMap<InetSocketAddress, Entry>();
+
+    private static final int MAX_ENTRIES = 64;
+    private static final int MAX_FAILURES = 5;
+    private static final long MAX_AGE_MS = 14 * DateUtils.DAY_IN_MILLIS;
+    private static final long MIN_SESSION_MS = 30 * DateUtils.SECOND_IN_MILLIS;
+    private static final long UNKNOWN_LATENCY_MS = 1000;
+    private static final double SMOOTHING = 0.3;
+
+    private static final Logger log = LoggerFactory.getLogger(PeerCache.class);
+
+    private static final class Entry {
+        private long lastConnectedMs;
+        private long latencyMs = -1;
+        private int failures;
+        private double blocksPerMinute;
+
+        // current session, not persisted
+        private long sessionStartMs = -1;
+        private int sessionBlocks;
+
+        private double score() {
+            // fast block serving peers with low latency first, halved for each recent failure
+            final long latencyMs = this.latencyMs >= 0 ? this.latencyMs : UNKNOWN_LATENCY_MS;
+            return (1 + blocksPerMinute) / (latencyMs + 100) / (1 << failures);
+        }
+    }
+
+    public PeerCache(final File file) {
+        this.file = file;
+    }
+
+    public synchronized void load() {
+        entries.clear();
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), Charsets.US_ASCII));
+            while (true) {
+                final String line = reader.readLine();
+                if (line == null)
+                    break;
+                final String[] fields = line.trim().split(" ");
+                if (fields.length != 6) {
+                    log.warn("Cannot parse line, ignoring: '{}'", line);
+                    continue;
+                }
+                try {
+                    final InetSocketAddress address = new InetSocketAddress(InetAddresses.forString(fields[0]),
+                            Integer.parseInt(fields[1]));
+                    final Entry entry = new Entry();
+                    entry.lastConnectedMs = Long.parseLong(fields[2]);
+                    entry.latencyMs = Long.parseLong(fields[3]);
+                    entry.failures = Integer.parseInt(fields[4]);
+                    entry.blocksPerMinute = Double.parseDouble(fields[5]);
+                    entries.put(address, entry);
+                } catch (final IllegalArgumentException x) {
+                    log.warn("Cannot parse line, ignoring: '" + line + "'", x);
+                }
+            }
+            log.info("loaded {} cached peers from {}", entries.size(), file);
+        } catch (final FileNotFoundException x) {
+            // nothing cached yet
+        } catch (final IOException x) {
+            log.warn("problem loading cached peers from " + file, x);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (final IOException x) {
+                    // swallow
+                }
+            }
+        }
+    }
+
+    public synchronized void save() {
+        final File tempFile = new File(file.getPath() + ".temp");
+        try {
+            final Writer writer = new OutputStreamWriter(new FileOutputStream(tempFile), Charsets.US_ASCII);
+            try {
+                for (final Map.Entry<InetSocketAddress, Entry> mapEntry : entries.entrySet()) {
+                    final InetSocketAddress address = mapEntry.getKey();
+                    final Entry entry = mapEntry.getValue();
+                    writer.write(String.format(Locale.US, "%s %d %d %d %d %.3f\n",
+                            InetAddresses.toAddrString(address.getAddress()), address.getPort(),
+                            entry.lastConnectedMs, entry.latencyMs, entry.failures, entry.blocksPerMinute));
+                }
+            } finally {
+                writer.close();
+            }
+            if (!tempFile.renameTo(file))
+                throw new IOException("cannot rename " + tempFile + " to " + file);
+        } catch (final IOException x) {
+            log.warn("problem saving cached peers to " + file, x);
+        }
+    }
+
+    public synchronized void connected(final InetSocketAddress address, final long nowMs) {
+        if (address.getAddress() == null)
+            return;
+        Entry entry = entries.get(address);
+        if (entry == null) {
+            entry = new Entry();
+            entries.put(address, entry);
+        }
+        entry.lastConnectedMs = nowMs;
+        entry.sessionStartMs = nowMs;
+        entry.sessionBlocks = 0;
+        trim(nowMs);
+    }
+
+    public synchronized void blockDownloaded(final InetSocketAddress address) {
+        final Entry entry = entries.get(address);
+        if (entry != null && entry.sessionStartMs >= 0)
+            entry.sessionBlocks++;
+    }
+
+    /**
+     * @param pingMs
+     *            average round trip time of the session, or {@link Long#MAX_VALUE} if unknown
+     */
+    public synchronized void disconnected(final InetSocketAddress address, final long pingMs, final long nowMs) {
+        final Entry entry = entries.get(address);
+        if (entry == null || entry.sessionStartMs < 0)
+            return;
+
+        final long sessionMs = nowMs - entry.sessionStartMs;
+        entry.sessionStartMs = -1;
+        if (sessionMs < MIN_SESSION_MS) {
+            entry.failures++;
+        } else {
+            entry.failures = 0;
+            final double blocksPerMinute = entry.sessionBlocks * (double) DateUtils.MINUTE_IN_MILLIS / sessionMs;
+            entry.blocksPerMinute += SMOOTHING * (blocksPerMinute - entry.blocksPerMinute);
+        }
+        if (pingMs >= 0 && pingMs < Long.MAX_VALUE)
+            entry.latencyMs = entry.latencyMs >= 0
+                    ? entry.latencyMs + Math.round(SMOOTHING * (pingMs - entry.latencyMs)) : pingMs;
+        trim(nowMs);
+    }
+
+    /**
+     * @return up to the given number of peers, best ranked first
+     */
+    public synchronized List<InetSocketAddress> best(final int maxPeers, final long nowMs) {
+        trim(nowMs);
+        final List<InetSocketAddress> peers = ranked();
+        return new ArrayList<InetSocketAddress>(peers.subList(0, Math.min(maxPeers, peers.size())));
+    }
+
+    private List<InetSocketAddress> ranked() {
+        final List<InetSocketAddress> peers = new ArrayList<InetSocketAddress>(entries.keySet());
+        Collections.sort(peers, new Comparator<InetSocketAddress>() {
+            @Override
+            public int compare(final InetSocketAddress lhs, final InetSocketAddress rhs) {
+                return Double.compare(entries.get(rhs).score(), entries.get(lhs).score());
+            }
+        });
+        return peers;
+    }
+
+    private void trim(final long nowMs) {
+        for (final Iterator<Entry> i = entries.values().iterator(); i.hasNext();) {
+            final Entry entry = i.next();
+            if (entry.sessionStartMs < 0
+                    && (entry.failures >= MAX_FAILURES || nowMs - entry.lastConnectedMs > MAX_AGE_MS))
+                i.remove();
+        }
+        if (entries.size() > MAX_ENTRIES) {
+            final List<InetSocketAddress> peers = ranked();
+            for (final InetSocketAddress address : peers.subList(MAX_ENTRIES, peers.size()))
+                if (entries.get(address).sessionStartMs < 0)
+                    entries.remove(address);
+        }
+    }
+}
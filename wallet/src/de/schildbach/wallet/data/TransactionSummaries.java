@@ -0,0 +1,202 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.data;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.annotation.Nullable;
+
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.utils.Threading;
+import org.bitcoinj.wallet.Wallet;
+import org.bitcoinj.wallet.listeners.WalletCoinsReceivedEventListener;
+import org.bitcoinj.wallet.listeners.WalletCoinsSentEventListener;
+import org.bitcoinj.wallet.listeners.WalletReorganizeEventListener;
+
+import de.schildbach.wallet.util.WalletUtils;
+
+/**
+ * Index of what the transaction list needs to know about each transaction, relative to a wallet. Summaries are
+ * small, so there is one for every transaction. The index is built once for all transactions by
+ * {@link #sync(Collection)}, and from then on kept up to date by wallet events: the
+ * summaries of the transactions involved and of those directly connected to them are computed again, because their
+ * values depend on which outputs the wallet knows. Lookups are safe from any thread. Listeners learn which summaries
+ * were computed again, so views can refresh the connected transactions as well.
+ */
+public class TransactionSummaries {
+    private final Wallet wallet;
+    private final ConcurrentMap<Sha256Hash, Summary> summaries = new ConcurrentHashMap<Sha256Hash, Summary>();
+    private final List<OnUpdateListener> listeners = new CopyOnWriteArrayList<OnUpdateListener>();
+
+    public interface OnUpdateListener {
+        /**
+         * Called on the thread of the wallet event, before the wallet changed event.
+         *
+         * @param hashes
+         *            transactions whose summaries were computed again
+         */
+        void onUpdate(Set<Sha256Hash> hashes);
+    }
+
+    public static class Summary {
+        /** Value of the transaction to the wallet; negative if sent. */
+        public final Coin value;
+        public final boolean sent;
+        /** All inputs and outputs belong to the wallet. */
+        public final boolean self;
+        /** Key rotation. */
+        public final boolean internal;
+        @Nullable
+        public final Coin fee;
+
+        private Summary(final Transaction tx, final Wallet wallet) {
+            this.value = tx.getValue(wallet);
+            this.sent = value.signum() < 0;
+            this.self = WalletUtils.isEntirelySelf(tx, wallet);
+            this.internal = tx.getPurpose() == Transaction.Purpose.KEY_ROTATION;
+            this.fee = tx.getFee();
+        }
+    }
+
+    public TransactionSummaries(final Wallet wallet) {
+        this.wallet = wallet;
+
+        wallet.addCoinsReceivedEventListener(Threading.SAME_THREAD, walletListener);
+        wallet.addCoinsSentEventListener(Threading.SAME_THREAD, walletListener);
+        wallet.addReorganizeEventListener(Threading.SAME_THREAD, walletListener);
+    }
+
+    public void shutdown() {
+        wallet.removeCoinsReceivedEventListener(walletListener);
+        wallet.removeCoinsSentEventListener(walletListener);
+        wallet.removeReorganizeEventListener(walletListener);
+    }
+
+    public void addUpdateListener(final OnUpdateListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeUpdateListener(final OnUpdateListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Summarizes the given wallet transactions that aren't indexed yet, and drops the summaries of transactions that
+     * have left the wallet. Cheap once the index is complete, so it can be called on every full reload.
+     */
+    public void sync(final Collection<Transaction> transactions) {
+        for (final Transaction tx : transactions) {
+            final Sha256Hash hash = tx.getHash();
+            // don't replace what a wallet event might have put meanwhile
+            if (!summaries.containsKey(hash))
+                summaries.putIfAbsent(hash, new Summary(tx, wallet));
+        }
+        if (summaries.size() > transactions.size())
+            for (final Iterator<Sha256Hash> i = summaries.keySet().iterator(); i.hasNext();)
+                if (wallet.getTransaction(i.next()) == null)
+                    i.remove();
+    }
+
+    /**
+     * @return the summary of the given transaction; only computed if it is not indexed, e.g. if the transaction
+     *         isn't part of the wallet
+     */
+    public Summary get(final Transaction tx) {
+        final Summary summary = summaries.get(tx.getHash());
+        return summary != null ? summary : new Summary(tx, wallet);
+    }
+
+    /**
+     * Not part of the summary, because only the rows that are shown need it. Evaluates scripts.
+     *
+     * @return recipient if sent, own receiving address otherwise
+     */
+    @Nullable
+    public Address address(final Transaction tx, final Summary summary) {
+        return summary.sent ? WalletUtils.getToAddressOfSent(tx, wallet)
+                : WalletUtils.getWalletAddressOfReceived(tx, wallet);
+    }
+
+    /**
+     * @return hashes of the transactions whose summaries were computed again
+     */
+    private Set<Sha256Hash> update(final Transaction tx) {
+        final Set<Sha256Hash> updated = new HashSet<Sha256Hash>();
+        summaries.put(tx.getHash(), new Summary(tx, wallet));
+        updated.add(tx.getHash());
+        for (final TransactionInput input : tx.getInputs()) {
+            final TransactionOutput connectedOutput = input.getConnectedOutput();
+            if (connectedOutput != null)
+                updateIfIndexed(connectedOutput.getParentTransaction(), updated);
+        }
+        for (final TransactionOutput output : tx.getOutputs()) {
+            final TransactionInput spentBy = output.getSpentBy();
+            if (spentBy != null)
+                updateIfIndexed(spentBy.getParentTransaction(), updated);
+        }
+        return updated;
+    }
+
+    private void updateIfIndexed(@Nullable final Transaction tx, final Set<Sha256Hash> updated) {
+        if (tx != null && summaries.containsKey(tx.getHash())) {
+            summaries.put(tx.getHash(), new Summary(tx, wallet));
+            updated.add(tx.getHash());
+        }
+    }
+
+    private void notifyUpdate(final Set<Sha256Hash> hashes) {
+        for (final OnUpdateListener listener : listeners)
+            listener.onUpdate(hashes);
+    }
+
+    private final WalletListener walletListener = new WalletListener();
+
+    private class WalletListener implements WalletCoinsReceivedEventListener, WalletCoinsSentEventListener,
+            WalletReorganizeEventListener {
+        @Override
+        public void onCoinsReceived(final Wallet wallet, final Transaction tx, final Coin prevBalance,
+                final Coin newBalance) {
+            notifyUpdate(update(tx));
+        }
+
+        @Override
+        public void onCoinsSent(final Wallet wallet, final Transaction tx, final Coin prevBalance,
+                final Coin newBalance) {
+            notifyUpdate(update(tx));
+        }
+
+        @Override
+        public void onReorganize(final Wallet wallet) {
+            // transactions may have died or come back, so summarize everything again
+            for (final Transaction tx : wallet.getTransactions(true))
+                summaries.put(tx.getHash(), new Summary(tx, wallet));
+        }
+    }
+}
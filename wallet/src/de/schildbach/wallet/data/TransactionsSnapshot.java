@@ -0,0 +1,163 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.TransactionConfidence.ConfidenceType;
+
+/**
+ * Compact snapshot of the first rows of the transaction list, so the list can be painted right away on the next start
+ * instead of waiting for the first load. Rows only refer to transactions by hash; it's up to the reader to reconcile
+ * them with the wallet.
+ *
+ * <p>
+ * Layout: magic and version, the number of rows, then per row the transaction hash, update time in milliseconds,
+ * value in satoshis, confidence type, a byte of flags and the optional fee, address and address label.
+ * </p>
+ */
+public final class TransactionsSnapshot {
+    private static final int MAGIC = 0x47525453; // "GRTS"
+    private static final int VERSION = 1;
+    private static final int MAX_ROWS = 1000;
+
+    private static final int FLAG_SENT = 1 << 0;
+    private static final int FLAG_SELF = 1 << 1;
+    private static final int FLAG_FEE = 1 << 2;
+    private static final int FLAG_ADDRESS = 1 << 3;
+    private static final int FLAG_ADDRESS_LABEL = 1 << 4;
+
+    private TransactionsSnapshot() {
+    }
+
+    public static final class Row {
+        public final Sha256Hash hash;
+        public final long updateTime;
+        public final Coin value;
+        public final ConfidenceType confidenceType;
+        public final boolean sent;
+        public final boolean self;
+        @Nullable
+        public final Coin fee;
+        @Nullable
+        public final String address;
+        @Nullable
+        public final String addressLabel;
+
+        public Row(final Sha256Hash hash, final long updateTime, final Coin value, final ConfidenceType confidenceType,
+                final boolean sent, final boolean self, @Nullable final Coin fee, @Nullable final String address,
+                @Nullable final String addressLabel) {
+            this.hash = hash;
+            this.updateTime = updateTime;
+            this.value = value;
+            this.confidenceType = confidenceType;
+            this.sent = sent;
+            this.self = self;
+            this.fee = fee;
+            this.address = address;
+            this.addressLabel = addressLabel;
+        }
+    }
+
+    /**
+     * Replaces the snapshot in the given file. The file is replaced atomically, so readers never see a partial
+     * snapshot.
+     */
+    public static void write(final File file, final List<Row> rows) throws IOException {
+        final File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        final DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+        try {
+            os.writeInt(MAGIC);
+            os.writeInt(VERSION);
+            final int numRows = Math.min(rows.size(), MAX_ROWS);
+            os.writeInt(numRows);
+            for (final Row row : rows.subList(0, numRows)) {
+                os.write(row.hash.getBytes());
+                os.writeLong(row.updateTime);
+                os.writeLong(row.value.value);
+                os.writeByte(row.confidenceType.ordinal());
+                os.writeByte((row.sent ? FLAG_SENT : 0) | (row.self ? FLAG_SELF : 0)
+                        | (row.fee != null ? FLAG_FEE : 0) | (row.address != null ? FLAG_ADDRESS : 0)
+                        | (row.addressLabel != null ? FLAG_ADDRESS_LABEL : 0));
+                if (row.fee != null)
+                    os.writeLong(row.fee.value);
+                if (row.address != null)
+                    os.writeUTF(row.address);
+                if (row.addressLabel != null)
+                    os.writeUTF(row.addressLabel);
+            }
+        } finally {
+            os.close();
+        }
+        if (!tempFile.renameTo(file))
+            throw new IOException("cannot rename " + tempFile + " to " + file);
+    }
+
+    /**
+     * @return rows of the snapshot in the given file, in list order
+     * @throws IOException
+     *             if there is no snapshot, or it cannot be read
+     */
+    public static List<Row> read(final File file) throws IOException {
+        final DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (is.readInt() != MAGIC)
+                throw new IOException("not a transactions snapshot: " + file);
+            final int version = is.readInt();
+            if (version != VERSION)
+                throw new IOException("unsupported transactions snapshot version " + version + ": " + file);
+            final int numRows = is.readInt();
+            if (numRows < 0 || numRows > MAX_ROWS)
+                throw new IOException("illegal number of rows " + numRows + ": " + file);
+
+            final ConfidenceType[] confidenceTypes = ConfidenceType.values();
+            final List<Row> rows = new ArrayList<Row>(numRows);
+            for (int i = 0; i < numRows; i++) {
+                final byte[] hash = new byte[Sha256Hash.LENGTH];
+                is.readFully(hash);
+                final long updateTime = is.readLong();
+                final Coin value = Coin.valueOf(is.readLong());
+                final int confidenceType = is.readUnsignedByte();
+                if (confidenceType >= confidenceTypes.length)
+                    throw new IOException("illegal confidence type " + confidenceType + ": " + file);
+                final int flags = is.readUnsignedByte();
+                final Coin fee = (flags & FLAG_FEE) != 0 ? Coin.valueOf(is.readLong()) : null;
+                final String address = (flags & FLAG_ADDRESS) != 0 ? is.readUTF() : null;
+                final String addressLabel = (flags & FLAG_ADDRESS_LABEL) != 0 ? is.readUTF() : null;
+                rows.add(new Row(Sha256Hash.wrap(hash), updateTime, value, confidenceTypes[confidenceType],
+                        (flags & FLAG_SENT) != 0, (flags & FLAG_SELF) != 0, fee, address, addressLabel));
+            }
+            return rows;
+        } finally {
+            is.close();
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.annotation.Nullable;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.utils.Threading;
+import org.bitcoinj.wallet.Wallet;
+import org.bitcoinj.wallet.listeners.WalletCoinsReceivedEventListener;
+import org.bitcoinj.wallet.listeners.WalletCoinsSentEventListener;
+import org.bitcoinj.wallet.listeners.WalletReorganizeEventListener;
+
+/**
+ * Unspent outputs of a wallet, sorted by value in descending order. The index is built from the spend candidates
+ * on first use and from then on updated incrementally from wallet events, so coin selection doesn't need to sort
+ * all outputs on every call.
+ */
+public class UtxoIndex {
+    private final Wallet wallet;
+    private final TreeSet<TransactionOutput> outputs = new TreeSet<TransactionOutput>(BY_VALUE_DESCENDING);
+    private boolean valid = false;
+    @Nullable
+    private List<TransactionOutput> snapshot = null;
+
+    private static final Comparator<TransactionOutput> BY_VALUE_DESCENDING = new Comparator<TransactionOutput>() {
+        @Override
+        public int compare(final TransactionOutput o1, final TransactionOutput o2) {
+            final int valueComparison = o2.getValue().compareTo(o1.getValue());
+            if (valueComparison != 0)
+                return valueComparison;
+            final int hashComparison = o1.getParentTransactionHash().compareTo(o2.getParentTransactionHash());
+            if (hashComparison != 0)
+                return hashComparison;
+            return o1.getIndex() - o2.getIndex();
+        }
+    };
+
+    public UtxoIndex(final Wallet wallet) {
+        this.wallet = wallet;
+
+        wallet.addCoinsReceivedEventListener(Threading.SAME_THREAD, walletListener);
+        wallet.addCoinsSentEventListener(Threading.SAME_THREAD, walletListener);
+        wallet.addReorganizeEventListener(Threading.SAME_THREAD, walletListener);
+    }
+
+    public void shutdown() {
+        wallet.removeCoinsReceivedEventListener(walletListener);
+        wallet.removeCoinsSentEventListener(walletListener);
+        wallet.removeReorganizeEventListener(walletListener);
+    }
+
+    /**
+     * Brings the index in line with the given spend candidates, as computed by the wallet.
+     *
+     * @return the candidates, sorted by value in descending order; an immutable snapshot that is only copied again
+     *         after the index changed
+     */
+    public synchronized List<TransactionOutput> sorted(final List<TransactionOutput> candidates) {
+        if (!valid) {
+            outputs.clear();
+            outputs.addAll(candidates);
+            valid = true;
+            snapshot = null;
+        } else {
+            // Outputs can disappear without a coins sent event, e.g. if their transaction died.
+            final Set<TransactionOutput> candidateSet = new HashSet<TransactionOutput>(candidates);
+            for (final Iterator<TransactionOutput> i = outputs.iterator(); i.hasNext();) {
+                if (!candidateSet.contains(i.next())) {
+                    i.remove();
+                    snapshot = null;
+                }
+            }
+            // The index is now a subset of the candidates, so if the sizes match there is nothing missing.
+            if (outputs.size() != candidateSet.size() && outputs.addAll(candidates))
+                snapshot = null;
+        }
+        if (snapshot == null)
+            snapshot = Collections.unmodifiableList(new ArrayList<TransactionOutput>(outputs));
+        return snapshot;
+    }
+
+    public synchronized int size() {
+        return outputs.size();
+    }
+
+    private synchronized void update(final Transaction tx) {
+        if (!valid)
+            return;
+        for (final TransactionInput input : tx.getInputs()) {
+            final TransactionOutput connectedOutput = input.getConnectedOutput();
+            if (connectedOutput != null && outputs.remove(connectedOutput))
+                snapshot = null;
+        }
+        for (final TransactionOutput output : tx.getOutputs())
+            if (output.isAvailableForSpending() && output.isMine(wallet) && outputs.add(output))
+                snapshot = null;
+    }
+
+    private synchronized void invalidate() {
+        outputs.clear();
+        valid = false;
+        snapshot = null;
+    }
+
+    private final WalletListener walletListener = new WalletListener();
+
+    private class WalletListener implements WalletCoinsReceivedEventListener, WalletCoinsSentEventListener,
+            WalletReorganizeEventListener {
+        @Override
+        public void onCoinsReceived(final Wallet wallet, final Transaction tx, final Coin prevBalance,
+                final Coin newBalance) {
+            update(tx);
+        }
+
+        @Override
+        public void onCoinsSent(final Wallet wallet, final Transaction tx, final Coin prevBalance,
+                final Coin newBalance) {
+            update(tx);
+        }
+
+        @Override
+        public void onReorganize(final Wallet wallet) {
+            invalidate();
+        }
+    }
+}
@@ -19,14 +19,15 @@ package de.schildbach.wallet.service;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.EnumSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -38,7 +39,6 @@ import javax.annotation.Nullable;
 import org.bitcoinj.core.Address;
 import org.bitcoinj.core.Block;
 import org.bitcoinj.core.BlockChain;
-import org.bitcoinj.core.CheckpointManager;
 import org.bitcoinj.core.Coin;
 import org.bitcoinj.core.FilteredBlock;
 import org.bitcoinj.core.Peer;
@@ -48,6 +48,7 @@ import org.bitcoinj.core.StoredBlock;
 import org.bitcoinj.core.Transaction;
 import org.bitcoinj.core.TransactionConfidence.ConfidenceType;
 import org.bitcoinj.core.listeners.AbstractPeerDataEventListener;
+import org.bitcoinj.core.listeners.OnTransactionBroadcastListener;
 import org.bitcoinj.core.listeners.PeerConnectedEventListener;
 import org.bitcoinj.core.listeners.PeerDataEventListener;
 import org.bitcoinj.core.listeners.PeerDisconnectedEventListener;
@@ -70,8 +71,11 @@ import de.schildbach.wallet.Constants;
 import de.schildbach.wallet.WalletApplication;
 import de.schildbach.wallet.WalletBalanceWidgetProvider;
 import de.schildbach.wallet.data.AddressBookProvider;
+import de.schildbach.wallet.data.FeeEstimator;
+import de.schildbach.wallet.data.PeerCache;
 import de.schildbach.wallet.service.BlockchainState.Impediment;
 import de.schildbach.wallet.ui.WalletActivity;
+import de.schildbach.wallet.util.BinaryCheckpoints;
 import de.schildbach.wallet.util.CrashReporter;
 import de.schildbach.wallet.util.ThrottlingWalletChangeListener;
 import de.schildbach.wallet.util.WalletUtils;
@@ -110,6 +114,8 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
     private BlockStore blockStore;
     private File blockChainFile;
     private BlockChain blockChain;
+    private RecentBlocks recentBlocks;
+    private PeerCache peerCache;
     @Nullable
     private PeerGroup peerGroup;
 
@@ -134,6 +140,8 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
     private static final int MAX_HISTORY_SIZE = Math.max(IDLE_TRANSACTION_TIMEOUT_MIN, IDLE_BLOCK_TIMEOUT_MIN);
     private static final long APPWIDGET_THROTTLE_MS = DateUtils.SECOND_IN_MILLIS;
     private static final long BLOCKCHAIN_STATE_BROADCAST_THROTTLE_MS = DateUtils.SECOND_IN_MILLIS;
+    private static final long PEER_CACHE_SAVE_THROTTLE_MS = DateUtils.MINUTE_IN_MILLIS;
+    private static final int RECENT_BLOCKS = 100;
 
     private static final Logger log = LoggerFactory.getLogger(BlockchainServiceImpl.class);
 
@@ -194,13 +202,16 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
         final String msg = getString(R.string.notification_coins_received_msg,
                 btcFormat.format(notificationAccumulatedAmount)) + msgSuffix;
 
+        final List<String> addressStrs = new ArrayList<String>(notificationAddresses.size());
+        for (final Address notificationAddress : notificationAddresses)
+            addressStrs.add(notificationAddress.toBase58());
+        final Map<String, String> labels = AddressBookProvider.resolveLabels(getApplicationContext(), addressStrs);
         final StringBuilder text = new StringBuilder();
-        for (final Address notificationAddress : notificationAddresses) {
+        for (final String addressStr : addressStrs) {
             if (text.length() > 0)
                 text.append(", ");
 
-            final String addressStr = notificationAddress.toBase58();
-            final String label = AddressBookProvider.resolveLabel(getApplicationContext(), addressStr);
+            final String label = labels.get(addressStr);
             text.append(label != null ? label : addressStr);
         }
 
@@ -222,6 +233,7 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
             implements PeerConnectedEventListener, PeerDisconnectedEventListener, OnSharedPreferenceChangeListener {
         private int peerCount;
         private AtomicBoolean stopped = new AtomicBoolean(false);
+        private final AtomicLong lastPeerCacheSave = new AtomicLong(0);
 
         public PeerConnectivityListener() {
             config.registerOnSharedPreferenceChangeListener(this);
@@ -237,16 +249,29 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 
         @Override
         public void onPeerConnected(final Peer peer, final int peerCount) {
+            final long now = System.currentTimeMillis();
+            peerCache.connected(peer.getAddress().toSocketAddress(), now);
+            maybeSavePeerCache(now);
             this.peerCount = peerCount;
             changed(peerCount);
         }
 
         @Override
         public void onPeerDisconnected(final Peer peer, final int peerCount) {
+            final long now = System.currentTimeMillis();
+            peerCache.disconnected(peer.getAddress().toSocketAddress(), peer.getPingTime(), now);
+            maybeSavePeerCache(now);
             this.peerCount = peerCount;
             changed(peerCount);
         }
 
+        // the process can be killed without onDestroy(), so don't save just there
+        private void maybeSavePeerCache(final long now) {
+            final long lastSave = lastPeerCacheSave.get();
+            if (now - lastSave > PEER_CACHE_SAVE_THROTTLE_MS && lastPeerCacheSave.compareAndSet(lastSave, now))
+                peerCache.save();
+        }
+
         @Override
         public void onSharedPreferenceChanged(final SharedPreferences sharedPreferences, final String key) {
             if (Configuration.PREFS_KEY_CONNECTIVITY_NOTIFICATION.equals(key))
@@ -284,12 +309,43 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
         }
     }
 
+    private final OnTransactionBroadcastListener feeEstimatorListener = new OnTransactionBroadcastListener() {
+        @Override
+        public void onTransaction(final Peer peer, final Transaction tx) {
+            application.getFeeEstimator().seen(tx.getHash(), System.currentTimeMillis());
+        }
+    };
+
+    private void sampleFees(final Block block, @Nullable final FilteredBlock filteredBlock, final int blocksLeft) {
+        final FeeEstimator feeEstimator = application.getFeeEstimator();
+        // don't let the initial sync decay the samples away, only new blocks make a rolling window
+        if (blocksLeft == 0)
+            feeEstimator.block();
+        if (filteredBlock == null)
+            return;
+
+        // Fees are only known for transactions whose inputs the wallet knows, so in practice these are the
+        // wallet's own transactions. Those paying a local estimate are ignored by the estimator.
+        final Wallet wallet = application.getWallet();
+        for (final Sha256Hash hash : filteredBlock.getTransactionHashes()) {
+            final Transaction tx = wallet.getTransaction(hash);
+            final Coin fee = tx != null ? tx.getFee() : null;
+            if (fee != null)
+                feeEstimator.confirmed(hash, fee.multiply(1000).divide(tx.unsafeBitcoinSerialize().length),
+                        block.getTimeSeconds() * DateUtils.SECOND_IN_MILLIS);
+        }
+    }
+
     private final PeerDataEventListener blockchainDownloadListener = new AbstractPeerDataEventListener() {
         private final AtomicLong lastMessageTime = new AtomicLong(0);
 
         @Override
         public void onBlocksDownloaded(final Peer peer, final Block block, final FilteredBlock filteredBlock,
                 final int blocksLeft) {
+            sampleFees(block, filteredBlock, blocksLeft);
+            recentBlocks.update(blockChain.getChainHead());
+            peerCache.blockDownloaded(peer.getAddress().toSocketAddress());
+
             delayHandler.removeCallbacksAndMessages(null);
 
             final long now = System.currentTimeMillis();
@@ -379,6 +435,7 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
                 peerGroup.setUserAgent(Constants.USER_AGENT, application.packageInfo().versionName);
                 peerGroup.addConnectedEventListener(peerConnectivityListener);
                 peerGroup.addDisconnectedEventListener(peerConnectivityListener);
+                peerGroup.addOnTransactionBroadcastListener(Threading.SAME_THREAD, feeEstimatorListener);
 
                 final int maxConnectedPeers = application.maxConnectedPeers();
 
@@ -393,6 +450,7 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
                 peerGroup.addPeerDiscovery(new PeerDiscovery() {
                     private final PeerDiscovery normalPeerDiscovery = MultiplexingDiscovery
                             .forServices(Constants.NETWORK_PARAMETERS, 0);
+                    private boolean cachedPeersOffered = false;
 
                     @Override
                     public InetSocketAddress[] getPeers(final long services, final long timeoutValue,
@@ -413,9 +471,22 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
                             }
                         }
 
-                        if (!connectTrustedPeerOnly)
-                            peers.addAll(
-                                    Arrays.asList(normalPeerDiscovery.getPeers(services, timeoutValue, timeoutUnit)));
+                        if (!connectTrustedPeerOnly) {
+                            // Offer the best cached peers first, and on their own: PeerGroup shuffles what it gets,
+                            // so mixed with the seeds their ranking would be lost. PeerGroup only asks again once it
+                            // has run out of peers to try, so fall back to the seeds then.
+                            final List<InetSocketAddress> cachedPeers = cachedPeersOffered
+                                    ? Collections.<InetSocketAddress> emptyList()
+                                    : peerCache.best(maxConnectedPeers * 2, System.currentTimeMillis());
+                            cachedPeersOffered = true;
+                            if (!cachedPeers.isEmpty()) {
+                                log.info("offering {} cached peers", cachedPeers.size());
+                                peers.addAll(cachedPeers);
+                            } else {
+                                peers.addAll(Arrays
+                                        .asList(normalPeerDiscovery.getPeers(services, timeoutValue, timeoutUnit)));
+                            }
+                        }
 
                         // workaround because PeerGroup will shuffle peers
                         if (needsTrimPeersWorkaround)
@@ -436,6 +507,7 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
                 peerGroup.startBlockChainDownload(blockchainDownloadListener);
             } else if (!impediments.isEmpty() && peerGroup != null) {
                 log.info("stopping peergroup");
+                peerGroup.removeOnTransactionBroadcastListener(feeEstimatorListener);
                 peerGroup.removeDisconnectedEventListener(peerConnectivityListener);
                 peerGroup.removeConnectedEventListener(peerConnectivityListener);
                 peerGroup.removeWallet(wallet);
@@ -583,9 +655,8 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
             if (!blockChainFileExists && earliestKeyCreationTime > 0) {
                 try {
                     final Stopwatch watch = Stopwatch.createStarted();
-                    final InputStream checkpointsInputStream = getAssets().open(Constants.Files.CHECKPOINTS_FILENAME);
-                    CheckpointManager.checkpoint(Constants.NETWORK_PARAMETERS, checkpointsInputStream, blockStore,
-                            earliestKeyCreationTime);
+                    BinaryCheckpoints.checkpoint(Constants.NETWORK_PARAMETERS, getAssets(),
+                            Constants.Files.CHECKPOINTS_FILENAME, blockStore, earliestKeyCreationTime);
                     watch.stop();
                     log.info("checkpoints loaded from '{}', took {}", Constants.Files.CHECKPOINTS_FILENAME, watch);
                 } catch (final IOException x) {
@@ -606,6 +677,12 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
             throw new Error("blockchain cannot be created", x);
         }
 
+        recentBlocks = new RecentBlocks(RECENT_BLOCKS, blockStore);
+        recentBlocks.update(blockChain.getChainHead());
+
+        peerCache = new PeerCache(new File(getFilesDir(), Constants.Files.PEERS_FILENAME));
+        peerCache.load();
+
         final IntentFilter intentFilter = new IntentFilter();
         intentFilter.addAction(ConnectivityManager.CONNECTIVITY_ACTION);
         intentFilter.addAction(Intent.ACTION_DEVICE_STORAGE_LOW);
@@ -645,6 +722,7 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 
                 if (peerGroup != null) {
                     log.info("broadcasting transaction " + tx.getHashAsString());
+                    application.getFeeEstimator().seen(hash, System.currentTimeMillis());
                     peerGroup.broadcastTransaction(tx);
                 } else {
                     log.info("peergroup not available, not broadcasting transaction " + tx.getHashAsString());
@@ -672,6 +750,7 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
         unregisterReceiver(connectivityReceiver);
 
         if (peerGroup != null) {
+            peerGroup.removeOnTransactionBroadcastListener(feeEstimatorListener);
             peerGroup.removeDisconnectedEventListener(peerConnectivityListener);
             peerGroup.removeConnectedEventListener(peerConnectivityListener);
             peerGroup.removeWallet(application.getWallet());
@@ -684,6 +763,8 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 
         delayHandler.removeCallbacksAndMessages(null);
 
+        peerCache.save();
+
         try {
             blockStore.close();
         } catch (final BlockStoreException x) {
@@ -739,24 +820,7 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 
     @Override
     public List<StoredBlock> getRecentBlocks(final int maxBlocks) {
-        final List<StoredBlock> blocks = new ArrayList<StoredBlock>(maxBlocks);
-
-        try {
-            StoredBlock block = blockChain.getChainHead();
-
-            while (block != null) {
-                blocks.add(block);
-
-                if (blocks.size() >= maxBlocks)
-                    break;
-
-                block = block.getPrev(blockStore);
-            }
-        } catch (final BlockStoreException x) {
-            // swallow
-        }
-
-        return blocks;
+        return recentBlocks.get(maxBlocks);
     }
 
     private void broadcastPeerState(final int numPeers) {
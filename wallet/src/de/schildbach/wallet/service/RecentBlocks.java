@@ -0,0 +1,82 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.service;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.store.BlockStore;
+import org.bitcoinj.store.BlockStoreException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fixed number of blocks from the tip of the best chain, newest first. The tip is advanced block by block as the
+ * chain grows; only if the new tip does not extend the current one (after a reorganize, or a gap) the blocks are
+ * reloaded from the block store. Readers never block: each update publishes a new immutable array.
+ */
+final class RecentBlocks {
+    private final int capacity;
+    private final BlockStore blockStore;
+    private volatile StoredBlock[] blocks = new StoredBlock[0];
+
+    private static final Logger log = LoggerFactory.getLogger(RecentBlocks.class);
+
+    public RecentBlocks(final int capacity, final BlockStore blockStore) {
+        this.capacity = capacity;
+        this.blockStore = blockStore;
+    }
+
+    /**
+     * Makes the given block the newest one. To be called whenever the chain head might have changed.
+     */
+    public synchronized void update(final StoredBlock head) {
+        final StoredBlock[] blocks = this.blocks;
+        if (blocks.length > 0) {
+            final StoredBlock newest = blocks[0];
+            if (newest.equals(head))
+                return;
+            if (newest.getHeader().getHash().equals(head.getHeader().getPrevBlockHash())) {
+                final StoredBlock[] advanced = new StoredBlock[Math.min(blocks.length + 1, capacity)];
+                advanced[0] = head;
+                System.arraycopy(blocks, 0, advanced, 1, advanced.length - 1);
+                this.blocks = advanced;
+                return;
+            }
+        }
+
+        final StoredBlock[] reloaded = new StoredBlock[capacity];
+        int size = 0;
+        try {
+            for (StoredBlock block = head; block != null && size < capacity; block = block.getPrev(blockStore))
+                reloaded[size++] = block;
+        } catch (final BlockStoreException x) {
+            log.warn("problem reloading recent blocks, keeping " + size, x);
+        }
+        this.blocks = Arrays.copyOf(reloaded, size);
+    }
+
+    /**
+     * @return up to the given number of blocks, newest first
+     */
+    public List<StoredBlock> get(final int maxBlocks) {
+        final StoredBlock[] blocks = this.blocks;
+        return Arrays.asList(Arrays.copyOf(blocks, Math.min(maxBlocks, blocks.length)));
+    }
+}
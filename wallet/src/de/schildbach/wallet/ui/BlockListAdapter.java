@@ -20,13 +20,14 @@ package de.schildbach.wallet.ui;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
 
 import javax.annotation.Nullable;
 
 import org.bitcoinj.core.Address;
 import org.bitcoinj.core.Block;
 import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Sha256Hash;
 import org.bitcoinj.core.StoredBlock;
 import org.bitcoinj.core.Transaction;
 import org.bitcoinj.core.Transaction.Purpose;
@@ -64,7 +65,8 @@ public class BlockListAdapter extends RecyclerView.Adapter<BlockListAdapter.Bloc
     private MonetaryFormat format;
 
     private final List<StoredBlock> blocks = new ArrayList<StoredBlock>();
-    private Set<Transaction> transactions;
+    @Nullable
+    private Map<Sha256Hash, List<Transaction>> transactions;
 
     private final String textCoinBase;
     private final String textInternal;
@@ -107,7 +109,7 @@ public class BlockListAdapter extends RecyclerView.Adapter<BlockListAdapter.Bloc
         notifyDataSetChanged();
     }
 
-    public void replaceTransactions(final Set<Transaction> transactions) {
+    public void replaceTransactions(final Map<Sha256Hash, List<Transaction>> transactions) {
         this.transactions = transactions;
 
         notifyDataSetChanged();
@@ -157,21 +159,20 @@ public class BlockListAdapter extends RecyclerView.Adapter<BlockListAdapter.Bloc
         final int transactionChildCount = holder.transactionsViewGroup.getChildCount() - ROW_BASE_CHILD_COUNT;
         int iTransactionView = 0;
 
-        if (transactions != null) {
-            for (final Transaction tx : transactions) {
-                if (tx.getAppearsInHashes().containsKey(header.getHash())) {
-                    final View view;
-                    if (iTransactionView < transactionChildCount) {
-                        view = holder.transactionsViewGroup.getChildAt(ROW_INSERT_INDEX + iTransactionView);
-                    } else {
-                        view = inflater.inflate(R.layout.block_row_transaction, null);
-                        holder.transactionsViewGroup.addView(view, ROW_INSERT_INDEX + iTransactionView);
-                    }
+        final List<Transaction> blockTransactions = transactions != null ? transactions.get(header.getHash()) : null;
+        if (blockTransactions != null) {
+            for (final Transaction tx : blockTransactions) {
+                final View view;
+                if (iTransactionView < transactionChildCount) {
+                    view = holder.transactionsViewGroup.getChildAt(ROW_INSERT_INDEX + iTransactionView);
+                } else {
+                    view = inflater.inflate(R.layout.block_row_transaction, null);
+                    holder.transactionsViewGroup.addView(view, ROW_INSERT_INDEX + iTransactionView);
+                }
 
-                    bindView(view, tx);
+                bindView(view, tx);
 
-                    iTransactionView++;
-                }
+                iTransactionView++;
             }
         }
 
@@ -17,12 +17,19 @@
 
 package de.schildbach.wallet.ui;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.RejectedExecutionException;
 
+import javax.annotation.Nullable;
+
 import org.bitcoinj.core.Sha256Hash;
 import org.bitcoinj.core.StoredBlock;
 import org.bitcoinj.core.Transaction;
@@ -55,6 +62,7 @@ import android.os.IBinder;
 import android.support.v4.content.LocalBroadcastManager;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
+import android.text.format.DateUtils;
 import android.view.LayoutInflater;
 import android.view.MenuItem;
 import android.view.View;
@@ -78,6 +86,9 @@ public final class BlockListFragment extends Fragment implements BlockListAdapte
     private ViewAnimator viewGroup;
     private RecyclerView recyclerView;
     private BlockListAdapter adapter;
+    private List<StoredBlock> blocks = Collections.emptyList();
+    @Nullable
+    private TransactionsLoader transactionLoader = null;
 
     private static final int ID_BLOCK_LOADER = 0;
     private static final int ID_TRANSACTION_LOADER = 1;
@@ -264,12 +275,14 @@ public final class BlockListFragment extends Fragment implements BlockListAdapte
 
         @Override
         public void onLoadFinished(final Loader<List<StoredBlock>> loader, final List<StoredBlock> blocks) {
+            BlockListFragment.this.blocks = blocks;
             adapter.replace(blocks);
             viewGroup.setDisplayedChild(1);
 
-            final Loader<Set<Transaction>> transactionLoader = loaderManager.getLoader(ID_TRANSACTION_LOADER);
-            if (transactionLoader != null && transactionLoader.isStarted())
+            if (transactionLoader != null && transactionLoader.isStarted()) {
+                transactionLoader.setBlocks(blocks);
                 transactionLoader.forceLoad();
+            }
         }
 
         @Override
@@ -278,8 +291,18 @@ public final class BlockListFragment extends Fragment implements BlockListAdapte
         }
     };
 
-    private static class TransactionsLoader extends AsyncTaskLoader<Set<Transaction>> {
+    /**
+     * Loads the wallet transactions per block, limited to the given blocks. Transactions that were last updated well
+     * before the oldest block are skipped without looking at the blocks they appear in.
+     */
+    private static class TransactionsLoader extends AsyncTaskLoader<Map<Sha256Hash, List<Transaction>>> {
         private final Wallet wallet;
+        private volatile Collection<StoredBlock> blocks = Collections.emptyList();
+
+        // A transaction's update time is the earlier of when it was first seen and the time of its block. So it can
+        // be older than its block by as long as it waited unconfirmed, which nodes limit to two weeks, and by how far
+        // the block time is off.
+        private static final long MAX_UNCONFIRMED_MS = 14 * DateUtils.DAY_IN_MILLIS + 2 * DateUtils.HOUR_IN_MILLIS;
 
         private TransactionsLoader(final Context context, final Wallet wallet) {
             super(context);
@@ -287,37 +310,71 @@ public final class BlockListFragment extends Fragment implements BlockListAdapte
             this.wallet = wallet;
         }
 
+        public void setBlocks(final Collection<StoredBlock> blocks) {
+            this.blocks = blocks;
+        }
+
         @Override
-        public Set<Transaction> loadInBackground() {
+        public Map<Sha256Hash, List<Transaction>> loadInBackground() {
             org.bitcoinj.core.Context.propagate(Constants.CONTEXT);
 
-            final Set<Transaction> transactions = wallet.getTransactions(true);
+            final Collection<StoredBlock> blocks = this.blocks;
+            final Map<Sha256Hash, List<Transaction>> transactionsByBlock = new HashMap<Sha256Hash, List<Transaction>>();
+            if (blocks.isEmpty())
+                return transactionsByBlock;
+
+            final Set<Sha256Hash> blockHashes = new HashSet<Sha256Hash>(blocks.size());
+            long oldestBlockTime = Long.MAX_VALUE;
+            for (final StoredBlock block : blocks) {
+                blockHashes.add(block.getHeader().getHash());
+                oldestBlockTime = Math.min(oldestBlockTime,
+                        block.getHeader().getTimeSeconds() * DateUtils.SECOND_IN_MILLIS);
+            }
+            final long minUpdateTime = oldestBlockTime - MAX_UNCONFIRMED_MS;
 
-            final Set<Transaction> filteredTransactions = new HashSet<Transaction>(transactions.size());
-            for (final Transaction tx : transactions) {
+            for (final Transaction tx : wallet.getTransactions(true)) {
+                final Date updateTime = tx.getUpdateTime();
+                if (updateTime != null && updateTime.getTime() < minUpdateTime)
+                    continue;
                 final Map<Sha256Hash, Integer> appearsIn = tx.getAppearsInHashes();
-                if (appearsIn != null && !appearsIn.isEmpty()) // TODO filter by updateTime
-                    filteredTransactions.add(tx);
+                if (appearsIn == null)
+                    continue;
+                for (final Sha256Hash blockHash : appearsIn.keySet()) {
+                    if (!blockHashes.contains(blockHash))
+                        continue;
+                    List<Transaction> transactions = transactionsByBlock.get(blockHash);
+                    if (transactions == null) {
+                        transactions = new ArrayList<Transaction>(1);
+                        transactionsByBlock.put(blockHash, transactions);
+                    }
+                    transactions.add(tx);
+                }
             }
 
-            return filteredTransactions;
+            return transactionsByBlock;
         }
     }
 
-    private final LoaderCallbacks<Set<Transaction>> transactionLoaderCallbacks = new LoaderCallbacks<Set<Transaction>>() {
-        @Override
-        public Loader<Set<Transaction>> onCreateLoader(final int id, final Bundle args) {
-            return new TransactionsLoader(activity, wallet);
-        }
+    private final LoaderCallbacks<Map<Sha256Hash, List<Transaction>>> transactionLoaderCallbacks = //
+            new LoaderCallbacks<Map<Sha256Hash, List<Transaction>>>() {
+                @Override
+                public Loader<Map<Sha256Hash, List<Transaction>>> onCreateLoader(final int id, final Bundle args) {
+                    transactionLoader = new TransactionsLoader(activity, wallet);
+                    transactionLoader.setBlocks(blocks);
+                    return transactionLoader;
+                }
 
-        @Override
-        public void onLoadFinished(final Loader<Set<Transaction>> loader, final Set<Transaction> transactions) {
-            adapter.replaceTransactions(transactions);
-        }
+                @Override
+                public void onLoadFinished(final Loader<Map<Sha256Hash, List<Transaction>>> loader,
+                        final Map<Sha256Hash, List<Transaction>> transactions) {
+                    adapter.replaceTransactions(transactions);
+                }
 
-        @Override
-        public void onLoaderReset(final Loader<Set<Transaction>> loader) {
-            adapter.clearTransactions();
-        }
-    };
+                @Override
+                public void onLoaderReset(final Loader<Map<Sha256Hash, List<Transaction>>> loader) {
+                    adapter.clearTransactions();
+                    if (loader == transactionLoader)
+                        transactionLoader = null;
+                }
+            };
 }
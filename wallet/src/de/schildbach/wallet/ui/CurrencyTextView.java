@@ -26,6 +26,7 @@ import org.globaltoken.wallet.R;
 
 import android.content.Context;
 import android.graphics.Paint;
+import android.text.SpannableString;
 import android.text.style.ForegroundColorSpan;
 import android.text.style.RelativeSizeSpan;
 import android.text.style.ScaleXSpan;
@@ -62,6 +63,27 @@ public final class CurrencyTextView extends TextView {
         updateView();
     }
 
+    /**
+     * Formats an amount the same way this view does, but without markup. Safe to call from any thread, so the
+     * result can be prepared ahead of time and later passed to {@link #setFormattedAmount(String)}.
+     */
+    public static String format(final MonetaryFormat format, final boolean alwaysSigned, final Monetary amount) {
+        return new MonetarySpannable(format.codeSeparator(Constants.CHAR_HAIR_SPACE), alwaysSigned, amount)
+                .toString();
+    }
+
+    /**
+     * Shows an amount that was already formatted by {@link #format(MonetaryFormat, boolean, Monetary)}, applying
+     * only the markup of this view. Replaces any amount set by {@link #setAmount(Monetary)}.
+     */
+    public void setFormattedAmount(final String formattedAmount) {
+        this.amount = null;
+        final SpannableString text = new SpannableString(formattedAmount);
+        MonetarySpannable.applyMarkup(text, new Object[] { prefixRelativeSizeSpan, prefixScaleXSpan, prefixColorSpan },
+                MonetarySpannable.STANDARD_SIGNIFICANT_SPANS, new Object[] { insignificantRelativeSizeSpan });
+        setText(text);
+    }
+
     public void setAlwaysSigned(final boolean alwaysSigned) {
         this.alwaysSigned = alwaysSigned;
         updateView();
@@ -19,14 +19,23 @@ package de.schildbach.wallet.ui;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Nullable;
 
 import org.bitcoinj.core.Address;
+import org.bitcoinj.core.AddressFormatException;
 import org.bitcoinj.core.Coin;
 import org.bitcoinj.core.Sha256Hash;
 import org.bitcoinj.core.Transaction;
@@ -38,8 +47,14 @@ import org.bitcoinj.utils.MonetaryFormat;
 import org.bitcoinj.wallet.DefaultCoinSelector;
 import org.bitcoinj.wallet.Wallet;
 
+import com.google.common.base.Objects;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 import de.schildbach.wallet.Constants;
 import de.schildbach.wallet.data.AddressBookProvider;
+import de.schildbach.wallet.data.ExchangeRatesHistory;
+import de.schildbach.wallet.data.TransactionSummaries;
+import de.schildbach.wallet.data.TransactionsSnapshot;
 import de.schildbach.wallet.util.CircularProgressView;
 import de.schildbach.wallet.util.Formats;
 import de.schildbach.wallet.util.WalletUtils;
@@ -49,10 +64,14 @@ import android.content.Context;
 import android.content.res.Resources;
 import android.graphics.Color;
 import android.graphics.Typeface;
+import android.os.Handler;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.util.ListUpdateCallback;
 import android.support.v7.widget.CardView;
 import android.support.v7.widget.RecyclerView;
 import android.text.Html;
 import android.text.format.DateUtils;
+import android.util.LruCache;
 import android.util.TypedValue;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -73,15 +92,25 @@ public class TransactionsAdapter extends RecyclerView.Adapter<RecyclerView.ViewH
 
     private final boolean useCards;
     private final Wallet wallet;
+    private final TransactionSummaries summaries;
     private final int maxConnectedPeers;
     @Nullable
     private final OnClickListener onClickListener;
 
+    private final Handler handler = new Handler();
+
     private final List<Transaction> transactions = new ArrayList<Transaction>();
+    // index of each transaction in the list above
+    private final Map<Sha256Hash, Integer> positions = new HashMap<Sha256Hash, Integer>();
     private MonetaryFormat format;
     private Warning warning = null;
+    @Nullable
+    private ExchangeRatesHistory exchangeRatesHistory = null;
+    @Nullable
+    private String exchangeCurrencyCode = null;
 
     private long selectedItemId = RecyclerView.NO_ID;
+    private int prefetchedPage = -1;
 
     private final int colorBackground, colorBackgroundSelected;
     private final int colorSignificant, colorLessSignificant, colorInsignificant;
@@ -95,41 +124,153 @@ public class TransactionsAdapter extends RecyclerView.Adapter<RecyclerView.ViewH
     private static final String CONFIDENCE_SYMBOL_DEAD = "\u271D"; // latin cross
     private static final String CONFIDENCE_SYMBOL_UNKNOWN = "?";
 
+    private static final int PAGE_SIZE = 50;
+    /** Enough for the prefetch window, so scrolling back and forth within it doesn't evict anything. */
+    private static final int CACHE_SIZE = 4 * PAGE_SIZE;
+
+    private static final Object PAYLOAD_CONFIDENCE = new Object();
+    private static final Object PAYLOAD_CACHE_ENTRY = new Object();
+
     private static final int VIEW_TYPE_TRANSACTION = 0;
     private static final int VIEW_TYPE_WARNING = 1;
 
-    private Map<Sha256Hash, TransactionCacheEntry> transactionCache = new HashMap<Sha256Hash, TransactionCacheEntry>();
+    // accessed from the main thread only
+    private final LruCache<Sha256Hash, TransactionCacheEntry> transactionCache;
+    // transactions whose cache entries are being loaded, by load; an entry is dropped if its load was superseded
+    private final Map<Sha256Hash, Object> pendingLoads = new ConcurrentHashMap<Sha256Hash, Object>();
+    private final AtomicInteger prefetchGeneration = new AtomicInteger();
+
+    // rows that are bound, accessed from the main thread only
+    private final Set<TransactionViewHolder> boundHolders = new HashSet<TransactionViewHolder>();
+    // transactions of bound rows whose confidence is still worth watching, replaced as a whole
+    private volatile Set<Sha256Hash> watched = Collections.emptySet();
 
+    private static final ThreadPoolExecutor cacheExecutor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.MINUTES,
+            new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactoryBuilder().setNameFormat("transactions-adapter-cache").setDaemon(true).build());
+
+    static {
+        cacheExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Everything about a transaction row that is expensive to compute and doesn't depend on confidence: the
+     * summary, the address and its resolved label, the exchange rate and the formatted amounts. Only held for a
+     * window of rows.
+     */
     private static class TransactionCacheEntry {
         private final Coin value;
         private final boolean sent;
         private final boolean self;
+        @Nullable
+        private final Coin fee;
         private final boolean showFee;
         @Nullable
         private final Address address;
         @Nullable
         private final String addressLabel;
+        private final Coin displayValue;
+        private final String formattedValue;
+        @Nullable
+        private final String formattedFee;
+        @Nullable
+        private final ExchangeRate exchangeRate;
 
-        private TransactionCacheEntry(final Coin value, final boolean sent, final boolean self, final boolean showFee,
-                final @Nullable Address address, final @Nullable String addressLabel) {
+        private TransactionCacheEntry(final Purpose purpose, final Coin value, final boolean sent, final boolean self,
+                final @Nullable Coin fee, final @Nullable Address address, final @Nullable String addressLabel,
+                final @Nullable ExchangeRate exchangeRate, final MonetaryFormat format) {
             this.value = value;
             this.sent = sent;
             this.self = self;
-            this.showFee = showFee;
+            this.fee = fee;
+            this.showFee = sent && fee != null && !fee.isZero();
             this.address = address;
             this.addressLabel = addressLabel;
+            if (purpose == Purpose.RAISE_FEE)
+                this.displayValue = fee != null ? fee.negate() : Coin.ZERO;
+            else
+                this.displayValue = showFee ? value.add(fee) : value;
+            this.formattedValue = CurrencyTextView.format(format, true, displayValue);
+            this.formattedFee = showFee ? CurrencyTextView.format(format, true, fee.negate()) : null;
+            this.exchangeRate = exchangeRate;
         }
     }
 
-    public TransactionsAdapter(final Context context, final Wallet wallet, final boolean useCards,
-            final int maxConnectedPeers, final @Nullable OnClickListener onClickListener) {
+    /**
+     * What a row shows about the confidence of its transaction.
+     */
+    private final class ConfidenceState {
+        private final ConfidenceType type;
+        private final int depth;
+        private final int numBroadcastPeers;
+        private final boolean selectable;
+        private final boolean delayed;
+        private final long updateTime;
+        private final String relativeTime;
+
+        private ConfidenceState(final Transaction tx) {
+            final TransactionConfidence confidence = tx.getConfidence();
+            this.type = confidence.getConfidenceType();
+            this.depth = type == ConfidenceType.BUILDING ? Math.min(confidence.getDepthInBlocks(), maxDepth(tx)) : 0;
+            this.numBroadcastPeers = type == ConfidenceType.PENDING ? confidence.numBroadcastPeers() : 0;
+            this.selectable = DefaultCoinSelector.isSelectable(tx);
+            this.updateTime = tx.getUpdateTime().getTime();
+            this.delayed = type == ConfidenceType.PENDING && wallet.getLastBlockSeenTimeSecs() * 1000
+                    - updateTime > Constants.DELAYED_TRANSACTION_THRESHOLD_MS;
+            this.relativeTime = DateUtils.getRelativeTimeSpanString(context, updateTime).toString();
+        }
+
+        /**
+         * @return true if nothing shown is going to change anymore: the transaction is buried deep enough and
+         *         relative time has turned into time of day or date
+         */
+        private boolean isSettled(final Transaction tx) {
+            return type == ConfidenceType.BUILDING && depth >= maxDepth(tx)
+                    && System.currentTimeMillis() - updateTime > DateUtils.HOUR_IN_MILLIS;
+        }
+
+        /**
+         * @return true if only the confidence indicator or the time changed, but nothing that affects the colors
+         */
+        private boolean isIndicatorChange(final ConfidenceState other) {
+            return type == ConfidenceType.BUILDING && other.type == ConfidenceType.BUILDING
+                    && selectable == other.selectable;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof ConfidenceState))
+                return false;
+            final ConfidenceState other = (ConfidenceState) o;
+            return type == other.type && depth == other.depth && numBroadcastPeers == other.numBroadcastPeers
+                    && selectable == other.selectable && delayed == other.delayed
+                    && relativeTime.equals(other.relativeTime);
+        }
+
+        @Override
+        public int hashCode() {
+            return type.hashCode() * 31 + depth;
+        }
+    }
+
+    private static int maxDepth(final Transaction tx) {
+        return tx.isCoinBase() ? Constants.NETWORK_PARAMETERS.getSpendableCoinbaseDepth()
+                : Constants.MAX_NUM_CONFIRMATIONS;
+    }
+
+    public TransactionsAdapter(final Context context, final Wallet wallet, final TransactionSummaries summaries,
+            final boolean useCards, final int maxConnectedPeers, final @Nullable OnClickListener onClickListener) {
         this.context = context;
         inflater = LayoutInflater.from(context);
 
         this.useCards = useCards;
         this.wallet = wallet;
+        this.summaries = summaries;
         this.maxConnectedPeers = maxConnectedPeers;
         this.onClickListener = onClickListener;
+        this.transactionCache = new LruCache<Sha256Hash, TransactionCacheEntry>(CACHE_SIZE);
 
         final Resources res = context.getResources();
         colorBackground = res.getColor(R.color.bg_bright);
@@ -149,12 +290,35 @@ public class TransactionsAdapter extends RecyclerView.Adapter<RecyclerView.ViewH
     }
 
     public void setFormat(final MonetaryFormat format) {
-        this.format = format.noCode();
+        final MonetaryFormat noCodeFormat = format.noCode();
+        if (Objects.equal(noCodeFormat, this.format))
+            return;
+        this.format = noCodeFormat;
+
+        // formatted amounts are part of the cache entries
+        clearCache();
 
         notifyDataSetChanged();
     }
 
+    /**
+     * Sets where to look up fiat values for transactions that do not carry the exchange rate of their time.
+     */
+    public void setExchangeRatesHistory(final @Nullable ExchangeRatesHistory exchangeRatesHistory,
+            final @Nullable String exchangeCurrencyCode) {
+        if (exchangeRatesHistory == this.exchangeRatesHistory
+                && Objects.equal(exchangeCurrencyCode, this.exchangeCurrencyCode))
+            return;
+        this.exchangeRatesHistory = exchangeRatesHistory;
+        this.exchangeCurrencyCode = exchangeCurrencyCode;
+
+        // rates are part of the cache entries
+        refreshCache();
+    }
+
     public void setWarning(final Warning warning) {
+        if (warning == this.warning)
+            return;
         this.warning = warning;
 
         notifyDataSetChanged();
@@ -162,6 +326,8 @@ public class TransactionsAdapter extends RecyclerView.Adapter<RecyclerView.ViewH
 
     public void clear() {
         transactions.clear();
+        updatePositions();
+        prefetchedPage = -1;
 
         notifyDataSetChanged();
     }
@@ -169,6 +335,8 @@ public class TransactionsAdapter extends RecyclerView.Adapter<RecyclerView.ViewH
     public void replace(final Transaction tx) {
         transactions.clear();
         transactions.add(tx);
+        updatePositions();
+        prefetchedPage = -1;
 
         notifyDataSetChanged();
     }
@@ -176,18 +344,345 @@ public class TransactionsAdapter extends RecyclerView.Adapter<RecyclerView.ViewH
     public void replace(final Collection<Transaction> transactions) {
         this.transactions.clear();
         this.transactions.addAll(transactions);
+        updatePositions();
+        prefetchedPage = -1;
 
         notifyDataSetChanged();
     }
 
+    /**
+     * Replaces the transactions, notifying only about the items that were inserted, removed, moved or changed.
+     *
+     * @param diff
+     *            diff from the current transactions to the new ones, or {@code null} to notify about everything
+     */
+    public void replace(final List<Transaction> transactions, final @Nullable DiffUtil.DiffResult diff) {
+        if (diff == null) {
+            replace(transactions);
+            return;
+        }
+
+        this.transactions.clear();
+        this.transactions.addAll(transactions);
+        updatePositions();
+        prefetchedPage = -1;
+
+        final int offset = warning != null ? 1 : 0;
+        diff.dispatchUpdatesTo(new ListUpdateCallback() {
+            @Override
+            public void onInserted(final int position, final int count) {
+                notifyItemRangeInserted(position + offset, count);
+            }
+
+            @Override
+            public void onRemoved(final int position, final int count) {
+                notifyItemRangeRemoved(position + offset, count);
+            }
+
+            @Override
+            public void onMoved(final int fromPosition, final int toPosition) {
+                notifyItemMoved(fromPosition + offset, toPosition + offset);
+            }
+
+            @Override
+            public void onChanged(final int position, final int count, final Object payload) {
+                notifyItemRangeChanged(position + offset, count, payload);
+            }
+        });
+    }
+
+    private void updatePositions() {
+        positions.clear();
+        for (int i = 0; i < transactions.size(); i++)
+            positions.put(transactions.get(i).getHash(), i);
+    }
+
+    /**
+     * Prefetches the cache entries of the page around the given index, and of the pages before and after it.
+     */
+    private void maybePrefetch(final int index) {
+        final int page = index / PAGE_SIZE;
+        if (page == prefetchedPage)
+            return;
+        prefetchedPage = page;
+
+        final int from = Math.max(page - 1, 0) * PAGE_SIZE;
+        final int to = Math.min((page + 2) * PAGE_SIZE, transactions.size());
+        loadCacheEntries(transactions.subList(from, to), true, false);
+    }
+
+    /**
+     * Loads the missing cache entries of the given transactions on a background thread, taking them over from any
+     * load that is still pending. A prefetch gives up on the rest of its transactions once a newer prefetch comes
+     * along. Rows are notified with a payload as their entries arrive, so they are filled in rather than replaced.
+     *
+     * @param reload
+     *            whether to load entries that are present as well
+     */
+    private void loadCacheEntries(final List<Transaction> transactions, final boolean prefetch,
+            final boolean reload) {
+        final Object load = new Object();
+        final List<Transaction> toLoad = new ArrayList<Transaction>();
+        for (final Transaction tx : transactions) {
+            final Sha256Hash hash = tx.getHash();
+            if (reload || transactionCache.get(hash) == null) {
+                pendingLoads.put(hash, load);
+                toLoad.add(tx);
+            }
+        }
+        if (toLoad.isEmpty())
+            return;
+
+        final int generation = prefetch ? prefetchGeneration.incrementAndGet() : 0;
+        final MonetaryFormat format = this.format;
+        final ExchangeRatesHistory exchangeRatesHistory = this.exchangeRatesHistory;
+        final String exchangeCurrencyCode = this.exchangeCurrencyCode;
+        cacheExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                org.bitcoinj.core.Context.propagate(Constants.CONTEXT);
+
+                final List<Transaction> loaded = new ArrayList<Transaction>(toLoad.size());
+                final List<Sha256Hash> dropped = new ArrayList<Sha256Hash>();
+                final Map<Sha256Hash, Address> addresses = new HashMap<Sha256Hash, Address>();
+                final List<String> base58Addresses = new ArrayList<String>();
+                for (final Transaction tx : toLoad) {
+                    final Sha256Hash hash = tx.getHash();
+                    if (pendingLoads.get(hash) != load) {
+                        dropped.add(hash); // invalidated or taken over
+                        continue;
+                    }
+                    if (prefetch && prefetchGeneration.get() != generation) {
+                        pendingLoads.remove(hash, load);
+                        dropped.add(hash);
+                        continue;
+                    }
+                    final Address address = summaries.address(tx, summaries.get(tx));
+                    loaded.add(tx);
+                    if (address != null) {
+                        addresses.put(hash, address);
+                        base58Addresses.add(address.toBase58());
+                    }
+                }
+
+                final Map<String, String> labels = AddressBookProvider.resolveLabels(context, base58Addresses);
+                final Map<Sha256Hash, TransactionCacheEntry> entries = new HashMap<Sha256Hash, TransactionCacheEntry>();
+                for (final Transaction tx : loaded) {
+                    final Address address = addresses.get(tx.getHash());
+                    final String addressLabel = address != null ? labels.get(address.toBase58()) : null;
+                    final ExchangeRate exchangeRate = exchangeRate(tx, exchangeRatesHistory, exchangeCurrencyCode);
+                    entries.put(tx.getHash(),
+                            newCacheEntry(tx, summaries.get(tx), address, addressLabel, exchangeRate, format));
+                }
+
+                if (!entries.isEmpty() || !dropped.isEmpty()) {
+                    handler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            onCacheEntriesLoaded(load, entries, dropped);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    private void onCacheEntriesLoaded(final Object load, final Map<Sha256Hash, TransactionCacheEntry> entries,
+            final List<Sha256Hash> dropped) {
+        for (final Map.Entry<Sha256Hash, TransactionCacheEntry> entry : entries.entrySet())
+            if (pendingLoads.remove(entry.getKey(), load))
+                transactionCache.put(entry.getKey(), entry.getValue());
+
+        // Rows of discarded entries are notified as well, so they get loaded again. Same for rows whose load was
+        // dropped, unless another load is going to deliver.
+        for (final Sha256Hash hash : entries.keySet())
+            notifyCacheEntryChanged(hash);
+        for (final Sha256Hash hash : dropped)
+            if (!pendingLoads.containsKey(hash))
+                notifyCacheEntryChanged(hash);
+    }
+
+    private void notifyCacheEntryChanged(final Sha256Hash hash) {
+        final Integer position = positions.get(hash);
+        if (position != null)
+            notifyItemChanged(position + (warning != null ? 1 : 0), PAYLOAD_CACHE_ENTRY);
+    }
+
+    private static TransactionCacheEntry newCacheEntry(final Transaction tx,
+            final TransactionSummaries.Summary summary, final @Nullable Address address,
+            final @Nullable String addressLabel, final @Nullable ExchangeRate exchangeRate,
+            final MonetaryFormat format) {
+        return new TransactionCacheEntry(tx.getPurpose(), summary.value, summary.sent, summary.self, summary.fee,
+                address, addressLabel, exchangeRate, format);
+    }
+
+    /**
+     * @return the exchange rate the transaction carries, or else the historical rate closest to its time; looks up
+     *         the history file, so not to be called on the main thread
+     */
+    @Nullable
+    private static ExchangeRate exchangeRate(final Transaction tx,
+            final @Nullable ExchangeRatesHistory exchangeRatesHistory, final @Nullable String exchangeCurrencyCode) {
+        final ExchangeRate exchangeRate = tx.getExchangeRate();
+        if (exchangeRate != null)
+            return exchangeRate;
+
+        final Date updateTime = tx.getUpdateTime();
+        if (exchangeRatesHistory == null || exchangeCurrencyCode == null || updateTime == null)
+            return null;
+        final de.schildbach.wallet.data.ExchangeRate historicalRate = exchangeRatesHistory
+                .rateAt(exchangeCurrencyCode, updateTime.getTime());
+        return historicalRate != null ? historicalRate.rate : null;
+    }
+
+    /**
+     * @return snapshot rows of the first transactions, as far as they have cache entries
+     */
+    public List<TransactionsSnapshot.Row> snapshot(final int maxRows) {
+        final Map<Sha256Hash, TransactionCacheEntry> entries = transactionCache.snapshot();
+        final List<TransactionsSnapshot.Row> rows = new ArrayList<TransactionsSnapshot.Row>(maxRows);
+        for (final Transaction tx : transactions) {
+            final TransactionCacheEntry entry = entries.get(tx.getHash());
+            if (rows.size() >= maxRows || entry == null)
+                break;
+            rows.add(new TransactionsSnapshot.Row(tx.getHash(), tx.getUpdateTime().getTime(), entry.value,
+                    tx.getConfidence().getConfidenceType(), entry.sent, entry.self, entry.fee,
+                    entry.address != null ? entry.address.toBase58() : null, entry.addressLabel));
+        }
+        return rows;
+    }
+
+    /**
+     * Shows the transactions of a snapshot that are still in the wallet. Their cache entries are taken from the
+     * snapshot, unless update time or confidence type tell that the transaction has changed since.
+     *
+     * @return the transactions shown
+     */
+    public List<Transaction> restore(final List<TransactionsSnapshot.Row> rows) {
+        final List<Transaction> transactions = new ArrayList<Transaction>(rows.size());
+        for (final TransactionsSnapshot.Row row : rows) {
+            final Transaction tx = wallet.getTransaction(row.hash);
+            if (tx == null)
+                continue;
+            transactions.add(tx);
+
+            if (tx.getUpdateTime().getTime() != row.updateTime
+                    || tx.getConfidence().getConfidenceType() != row.confidenceType)
+                continue;
+            try {
+                final Address address = row.address != null
+                        ? Address.fromBase58(Constants.NETWORK_PARAMETERS, row.address) : null;
+                // the historical rate is filled in by the refresh after the first load
+                transactionCache.put(row.hash, new TransactionCacheEntry(tx.getPurpose(), row.value, row.sent,
+                        row.self, row.fee, address, row.addressLabel, tx.getExchangeRate(), format));
+            } catch (final AddressFormatException x) {
+                // the entry will be loaded
+            }
+        }
+        replace(transactions);
+        return transactions;
+    }
+
+    /**
+     * Drops the cache entries of the given transactions. Doesn't notify, as the caller is expected to notify about
+     * the changed rows anyway.
+     */
+    public void invalidate(final Collection<Sha256Hash> hashes) {
+        for (final Sha256Hash hash : hashes) {
+            transactionCache.remove(hash);
+            pendingLoads.remove(hash);
+        }
+    }
+
+    /**
+     * Reloads the cache entries of all transactions with the given address in the background, while their rows keep
+     * showing the current entries. Their rows are notified once the new entries arrive.
+     */
+    public void invalidateAddress(final String address) {
+        final List<Transaction> invalidated = new ArrayList<Transaction>();
+        for (final Map.Entry<Sha256Hash, TransactionCacheEntry> entry : transactionCache.snapshot().entrySet()) {
+            final Address entryAddress = entry.getValue().address;
+            if (entryAddress != null && entryAddress.toBase58().equals(address)) {
+                final Integer position = positions.get(entry.getKey());
+                if (position != null)
+                    invalidated.add(transactions.get(position));
+                else
+                    transactionCache.remove(entry.getKey());
+            }
+        }
+        // can't tell the address of pending loads, so let them all be redone
+        pendingLoads.clear();
+
+        loadCacheEntries(invalidated, false, true);
+    }
+
+    /**
+     * Reloads the cache entries of all transactions in the background, while their rows keep showing the current
+     * entries. Entries of transactions that aren't shown anymore are dropped.
+     */
+    public void refreshCache() {
+        final Map<Sha256Hash, TransactionCacheEntry> entries = transactionCache.snapshot();
+        final List<Transaction> cached = new ArrayList<Transaction>(entries.size());
+        for (final Transaction tx : transactions)
+            if (entries.remove(tx.getHash()) != null)
+                cached.add(tx);
+        for (final Sha256Hash hash : entries.keySet())
+            transactionCache.remove(hash);
+        loadCacheEntries(cached, false, true);
+    }
+
+    public void clearCache() {
+        transactionCache.evictAll();
+        pendingLoads.clear();
+        prefetchedPage = -1;
+    }
+
     public void setSelectedItemId(final long itemId) {
         selectedItemId = itemId;
 
         notifyDataSetChanged();
     }
 
+    /**
+     * @return true if the transaction is shown in a row that still changes with its confidence; safe to call from
+     *         any thread
+     */
+    public boolean isWatched(final Sha256Hash hash) {
+        return watched.contains(hash);
+    }
+
+    /**
+     * Notifies the bound rows whose confidence display is outdated. Rows with only the confidence indicator or the
+     * time outdated are notified with a payload, so only that part is bound again.
+     */
+    public void notifyConfidenceChanged() {
+        final int offset = warning != null ? 1 : 0;
+        for (final TransactionViewHolder holder : new ArrayList<TransactionViewHolder>(boundHolders)) {
+            final int position = holder.getAdapterPosition();
+            final Transaction tx = holder.boundTx;
+            if (position == RecyclerView.NO_POSITION || position < offset || position - offset >= transactions.size()
+                    || !transactions.get(position - offset).getHash().equals(tx.getHash()))
+                continue;
+            final ConfidenceState confidence = new ConfidenceState(tx);
+            if (confidence.equals(holder.boundConfidence))
+                continue;
+            if (confidence.isIndicatorChange(holder.boundConfidence))
+                notifyItemChanged(position, PAYLOAD_CONFIDENCE);
+            else
+                notifyItemChanged(position);
+        }
+    }
+
+    private void updateWatched() {
+        final Set<Sha256Hash> watched = new HashSet<Sha256Hash>();
+        for (final TransactionViewHolder holder : boundHolders)
+            if (!holder.boundConfidence.isSettled(holder.boundTx))
+                watched.add(holder.boundTx.getHash());
+        this.watched = watched;
+    }
+
     public void clearCacheAndNotifyDataSetChanged() {
-        transactionCache.clear();
+        clearCache();
 
         notifyDataSetChanged();
     }
@@ -247,6 +742,36 @@ public class TransactionsAdapter extends RecyclerView.Adapter<RecyclerView.ViewH
         }
     }
 
+    @Override
+    public void onBindViewHolder(final RecyclerView.ViewHolder holder, final int position,
+            final List<Object> payloads) {
+        boolean onlyConfidence = !payloads.isEmpty() && holder instanceof TransactionViewHolder;
+        for (final Object payload : payloads)
+            onlyConfidence &= payload == PAYLOAD_CONFIDENCE;
+
+        if (onlyConfidence)
+            ((TransactionViewHolder) holder).bindConfidence(transactions.get(position - (warning != null ? 1 : 0)));
+        else
+            onBindViewHolder(holder, position);
+    }
+
+    @Override
+    public void onViewRecycled(final RecyclerView.ViewHolder holder) {
+        if (holder instanceof TransactionViewHolder && boundHolders.remove(holder)) {
+            final TransactionViewHolder transactionHolder = (TransactionViewHolder) holder;
+            transactionHolder.boundTx = null;
+            transactionHolder.boundConfidence = null;
+            updateWatched();
+        }
+    }
+
+    @Override
+    public void onDetachedFromRecyclerView(final RecyclerView recyclerView) {
+        // the adapter might outlive its views
+        boundHolders.clear();
+        updateWatched();
+    }
+
     @Override
     public void onBindViewHolder(final RecyclerView.ViewHolder holder, final int position) {
         if (holder instanceof TransactionViewHolder) {
@@ -255,7 +780,9 @@ public class TransactionsAdapter extends RecyclerView.Adapter<RecyclerView.ViewH
             final long itemId = getItemId(position);
             transactionHolder.itemView.setActivated(itemId == selectedItemId);
 
-            final Transaction tx = transactions.get(position - (warning != null ? 1 : 0));
+            final int index = position - (warning != null ? 1 : 0);
+            maybePrefetch(index);
+            final Transaction tx = transactions.get(index);
             transactionHolder.bind(tx);
 
             transactionHolder.itemView.setOnClickListener(new View.OnClickListener() {
@@ -323,6 +850,12 @@ public class TransactionsAdapter extends RecyclerView.Adapter<RecyclerView.ViewH
         private final TextView messageView;
         private final ImageButton menuView;
 
+        private int textColor, valueColor;
+        @Nullable
+        private Transaction boundTx = null;
+        @Nullable
+        private ConfidenceState boundConfidence = null;
+
         private TransactionViewHolder(final View itemView) {
             super(itemView);
 
@@ -358,33 +891,18 @@ public class TransactionsAdapter extends RecyclerView.Adapter<RecyclerView.ViewH
             final boolean isOwn = confidence.getSource().equals(TransactionConfidence.Source.SELF);
             final boolean isCoinBase = tx.isCoinBase();
             final Transaction.Purpose purpose = tx.getPurpose();
-            final Coin fee = tx.getFee();
             final String[] memo = Formats.sanitizeMemo(tx.getMemo());
 
-            TransactionCacheEntry txCache = transactionCache.get(tx.getHash());
-            if (txCache == null) {
-                final Coin value = tx.getValue(wallet);
-                final boolean sent = value.signum() < 0;
-                final boolean self = WalletUtils.isEntirelySelf(tx, wallet);
-                final boolean showFee = sent && fee != null && !fee.isZero();
-                final Address address;
-                if (sent)
-                    address = WalletUtils.getToAddressOfSent(tx, wallet);
-                else
-                    address = WalletUtils.getWalletAddressOfReceived(tx, wallet);
-                final String addressLabel = address != null
-                        ? AddressBookProvider.resolveLabel(context, address.toBase58()) : null;
-
-                txCache = new TransactionCacheEntry(value, sent, self, showFee, address, addressLabel);
-                transactionCache.put(tx.getHash(), txCache);
-            }
+            final TransactionCacheEntry txCache = transactionCache.get(tx.getHash());
+            if (txCache == null && !pendingLoads.containsKey(tx.getHash()))
+                loadCacheEntries(Collections.singletonList(tx), false, false);
 
             final int textColor, lessSignificantColor, valueColor;
             if (confidenceType == ConfidenceType.DEAD) {
                 textColor = colorError;
                 lessSignificantColor = colorError;
                 valueColor = colorError;
-            } else if (DefaultCoinSelector.isSelectable(tx)) {
+            } else if (DefaultCoinSelector.isSelectable(tx) && txCache != null) {
                 textColor = colorSignificant;
                 lessSignificantColor = colorLessSignificant;
                 valueColor = txCache.sent ? colorValueNegative : colorValuePositve;
@@ -394,72 +912,20 @@ public class TransactionsAdapter extends RecyclerView.Adapter<RecyclerView.ViewH
                 valueColor = colorInsignificant;
             }
 
-            // confidence
-            final CircularProgressView confidenceCircularView = itemView.isActivated() ? confidenceCircularSelectedView
-                    : confidenceCircularNormalView;
-            final TextView confidenceTextualView = itemView.isActivated() ? confidenceTextualSelectedView
-                    : confidenceTextualNormalView;
-            (itemView.isActivated() ? confidenceCircularNormalView : confidenceCircularSelectedView)
-                    .setVisibility(View.INVISIBLE);
-            (itemView.isActivated() ? confidenceTextualNormalView : confidenceTextualSelectedView)
-                    .setVisibility(View.GONE);
-            if (confidenceType == ConfidenceType.PENDING) {
-                confidenceCircularView.setVisibility(View.VISIBLE);
-                confidenceTextualView.setVisibility(View.GONE);
+            this.textColor = textColor;
+            this.valueColor = valueColor;
+            bindConfidence(tx);
 
-                confidenceCircularView.setProgress(1);
-                confidenceCircularView.setMaxProgress(1);
-                confidenceCircularView.setSize(confidence.numBroadcastPeers());
-                confidenceCircularView.setMaxSize(maxConnectedPeers / 2); // magic value
-                confidenceCircularView.setColors(colorInsignificant, Color.TRANSPARENT);
-            } else if (confidenceType == ConfidenceType.IN_CONFLICT) {
-                confidenceCircularView.setVisibility(View.GONE);
-                confidenceTextualView.setVisibility(View.VISIBLE);
-
-                confidenceTextualView.setText(CONFIDENCE_SYMBOL_IN_CONFLICT);
-                confidenceTextualView.setTextColor(colorError);
-                confidenceTextualView.setTextSize(TypedValue.COMPLEX_UNIT_PX, textSizeNormal * 0.85f);
-            } else if (confidenceType == ConfidenceType.BUILDING) {
-                confidenceCircularView.setVisibility(View.VISIBLE);
-                confidenceTextualView.setVisibility(View.GONE);
-
-                confidenceCircularView.setProgress(confidence.getDepthInBlocks());
-                confidenceCircularView.setMaxProgress(isCoinBase
-                        ? Constants.NETWORK_PARAMETERS.getSpendableCoinbaseDepth() : Constants.MAX_NUM_CONFIRMATIONS);
-                confidenceCircularView.setSize(1);
-                confidenceCircularView.setMaxSize(1);
-                confidenceCircularView.setColors(valueColor, Color.TRANSPARENT);
-            } else if (confidenceType == ConfidenceType.DEAD) {
-                confidenceCircularView.setVisibility(View.GONE);
-                confidenceTextualView.setVisibility(View.VISIBLE);
-
-                confidenceTextualView.setText(CONFIDENCE_SYMBOL_DEAD);
-                confidenceTextualView.setTextColor(colorError);
-                confidenceTextualView.setTextSize(TypedValue.COMPLEX_UNIT_PX, textSizeNormal);
-            } else {
-                confidenceCircularView.setVisibility(View.GONE);
-                confidenceTextualView.setVisibility(View.VISIBLE);
-
-                confidenceTextualView.setText(CONFIDENCE_SYMBOL_UNKNOWN);
-                confidenceTextualView.setTextColor(colorInsignificant);
-                confidenceTextualView.setTextSize(TypedValue.COMPLEX_UNIT_PX, textSizeNormal);
-            }
-
-            // time
-            final Date time = tx.getUpdateTime();
-            if (!itemView.isActivated()) {
-                extendTimeView.setVisibility(View.GONE);
-
-                timeView.setVisibility(View.VISIBLE);
-                timeView.setText(DateUtils.getRelativeTimeSpanString(context, time.getTime()));
-                timeView.setTextColor(textColor);
-            } else {
-                extendTimeView.setVisibility(View.VISIBLE);
-                fullTimeView.setText(DateUtils.formatDateTime(context, time.getTime(),
-                        DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_SHOW_TIME));
-                fullTimeView.setTextColor(textColor);
-
-                timeView.setVisibility(View.GONE);
+            if (txCache == null) {
+                // placeholder, the row is filled in once the entry has been loaded in the background
+                addressView.setText(null);
+                extendAddressView.setVisibility(View.VISIBLE);
+                extendFeeView.setVisibility(View.GONE);
+                valueView.setVisibility(View.GONE);
+                extendFiatView.setVisibility(View.GONE);
+                extendMessageView.setVisibility(View.GONE);
+                menuView.setVisibility(itemView.isActivated() ? View.VISIBLE : View.GONE);
+                return;
             }
 
             // address
@@ -500,29 +966,18 @@ public class TransactionsAdapter extends RecyclerView.Adapter<RecyclerView.ViewH
                 extendFeeView.setVisibility(itemView.isActivated()
                         || (confidenceType == ConfidenceType.PENDING && purpose != Purpose.RAISE_FEE) ? View.VISIBLE
                                 : View.GONE);
-                feeView.setAlwaysSigned(true);
-                feeView.setFormat(format);
-                feeView.setAmount(fee.negate());
+                feeView.setFormattedAmount(txCache.formattedFee);
             } else {
                 extendFeeView.setVisibility(View.GONE);
             }
 
             // value
-            valueView.setAlwaysSigned(true);
-            valueView.setFormat(format);
-            final Coin value;
-            if (purpose == Purpose.RAISE_FEE) {
-                valueView.setTextColor(colorInsignificant);
-                value = fee.negate();
-            } else {
-                valueView.setTextColor(valueColor);
-                value = txCache.showFee ? txCache.value.add(fee) : txCache.value;
-            }
-            valueView.setAmount(value);
-            valueView.setVisibility(!value.isZero() ? View.VISIBLE : View.GONE);
+            valueView.setTextColor(purpose == Purpose.RAISE_FEE ? colorInsignificant : valueColor);
+            valueView.setFormattedAmount(txCache.formattedValue);
+            valueView.setVisibility(!txCache.displayValue.isZero() ? View.VISIBLE : View.GONE);
 
             // fiat value
-            final ExchangeRate exchangeRate = tx.getExchangeRate();
+            final ExchangeRate exchangeRate = txCache.exchangeRate;
             if (exchangeRate != null) {
                 extendFiatView.setVisibility(View.VISIBLE);
                 fiatView.setAlwaysSigned(true);
@@ -595,6 +1050,87 @@ public class TransactionsAdapter extends RecyclerView.Adapter<RecyclerView.ViewH
             // menu
             menuView.setVisibility(itemView.isActivated() ? View.VISIBLE : View.GONE);
         }
+
+        /**
+         * Binds what changes with confidence, while the colors of the row stay the same: the confidence indicator and
+         * the time.
+         */
+        private void bindConfidence(final Transaction tx) {
+            final TransactionConfidence confidence = tx.getConfidence();
+            final ConfidenceType confidenceType = confidence.getConfidenceType();
+
+            // confidence
+            final CircularProgressView confidenceCircularView = itemView.isActivated() ? confidenceCircularSelectedView
+                    : confidenceCircularNormalView;
+            final TextView confidenceTextualView = itemView.isActivated() ? confidenceTextualSelectedView
+                    : confidenceTextualNormalView;
+            (itemView.isActivated() ? confidenceCircularNormalView : confidenceCircularSelectedView)
+                    .setVisibility(View.INVISIBLE);
+            (itemView.isActivated() ? confidenceTextualNormalView : confidenceTextualSelectedView)
+                    .setVisibility(View.GONE);
+            if (confidenceType == ConfidenceType.PENDING) {
+                confidenceCircularView.setVisibility(View.VISIBLE);
+                confidenceTextualView.setVisibility(View.GONE);
+
+                confidenceCircularView.setProgress(1);
+                confidenceCircularView.setMaxProgress(1);
+                confidenceCircularView.setSize(confidence.numBroadcastPeers());
+                confidenceCircularView.setMaxSize(maxConnectedPeers / 2); // magic value
+                confidenceCircularView.setColors(colorInsignificant, Color.TRANSPARENT);
+            } else if (confidenceType == ConfidenceType.IN_CONFLICT) {
+                confidenceCircularView.setVisibility(View.GONE);
+                confidenceTextualView.setVisibility(View.VISIBLE);
+
+                confidenceTextualView.setText(CONFIDENCE_SYMBOL_IN_CONFLICT);
+                confidenceTextualView.setTextColor(colorError);
+                confidenceTextualView.setTextSize(TypedValue.COMPLEX_UNIT_PX, textSizeNormal * 0.85f);
+            } else if (confidenceType == ConfidenceType.BUILDING) {
+                confidenceCircularView.setVisibility(View.VISIBLE);
+                confidenceTextualView.setVisibility(View.GONE);
+
+                confidenceCircularView.setProgress(confidence.getDepthInBlocks());
+                confidenceCircularView.setMaxProgress(maxDepth(tx));
+                confidenceCircularView.setSize(1);
+                confidenceCircularView.setMaxSize(1);
+                confidenceCircularView.setColors(valueColor, Color.TRANSPARENT);
+            } else if (confidenceType == ConfidenceType.DEAD) {
+                confidenceCircularView.setVisibility(View.GONE);
+                confidenceTextualView.setVisibility(View.VISIBLE);
+
+                confidenceTextualView.setText(CONFIDENCE_SYMBOL_DEAD);
+                confidenceTextualView.setTextColor(colorError);
+                confidenceTextualView.setTextSize(TypedValue.COMPLEX_UNIT_PX, textSizeNormal);
+            } else {
+                confidenceCircularView.setVisibility(View.GONE);
+                confidenceTextualView.setVisibility(View.VISIBLE);
+
+                confidenceTextualView.setText(CONFIDENCE_SYMBOL_UNKNOWN);
+                confidenceTextualView.setTextColor(colorInsignificant);
+                confidenceTextualView.setTextSize(TypedValue.COMPLEX_UNIT_PX, textSizeNormal);
+            }
+
+            // time
+            final Date time = tx.getUpdateTime();
+            if (!itemView.isActivated()) {
+                extendTimeView.setVisibility(View.GONE);
+
+                timeView.setVisibility(View.VISIBLE);
+                timeView.setText(DateUtils.getRelativeTimeSpanString(context, time.getTime()));
+                timeView.setTextColor(textColor);
+            } else {
+                extendTimeView.setVisibility(View.VISIBLE);
+                fullTimeView.setText(DateUtils.formatDateTime(context, time.getTime(),
+                        DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_SHOW_TIME));
+                fullTimeView.setTextColor(textColor);
+
+                timeView.setVisibility(View.GONE);
+            }
+
+            boundTx = tx;
+            boundConfidence = new ConfidenceState(tx);
+            boundHolders.add(this);
+            updateWatched();
+        }
     }
 
     private class WarningViewHolder extends RecyclerView.ViewHolder {
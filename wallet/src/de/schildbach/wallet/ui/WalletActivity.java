@@ -52,7 +52,7 @@ import de.schildbach.wallet.ui.send.SendCoinsActivity;
 import de.schildbach.wallet.ui.send.SweepWalletActivity;
 import de.schildbach.wallet.util.CrashReporter;
 import de.schildbach.wallet.util.Crypto;
-import de.schildbach.wallet.util.HttpGetThread;
+import de.schildbach.wallet.util.HttpGetTask;
 import de.schildbach.wallet.util.Io;
 import de.schildbach.wallet.util.Nfc;
 import de.schildbach.wallet.util.WalletUtils;
@@ -625,7 +625,7 @@ public final class WalletActivity extends AbstractBindServiceActivity
         url.addEncodedQueryParameter("package", packageInfo.packageName);
         url.addQueryParameter("current", Integer.toString(packageInfo.versionCode));
 
-        new HttpGetThread(url.build(), application.httpUserAgent()) {
+        new HttpGetTask(url.build(), application.httpUserAgent()) {
             @Override
             protected void handleLine(final String line, final long serverTime) {
                 final int serverVersionCode = Integer.parseInt(line.split("\\s+")[0]);
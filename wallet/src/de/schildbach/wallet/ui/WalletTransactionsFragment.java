@@ -17,24 +17,32 @@
 
 package de.schildbach.wallet.ui;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.annotation.Nullable;
 
 import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Sha256Hash;
 import org.bitcoinj.script.ScriptException;
 import org.bitcoinj.core.Transaction;
-import org.bitcoinj.core.Transaction.Purpose;
 import org.bitcoinj.core.TransactionConfidence.ConfidenceType;
 import org.bitcoinj.utils.Threading;
 import org.bitcoinj.wallet.Wallet;
+import org.bitcoinj.wallet.WalletTransaction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -42,13 +50,16 @@ import de.schildbach.wallet.Configuration;
 import de.schildbach.wallet.Constants;
 import de.schildbach.wallet.WalletApplication;
 import de.schildbach.wallet.data.AddressBookProvider;
+import de.schildbach.wallet.data.ExchangeRate;
+import de.schildbach.wallet.data.TransactionSummaries;
+import de.schildbach.wallet.data.TransactionSummaries.OnUpdateListener;
+import de.schildbach.wallet.data.TransactionsSnapshot;
 import de.schildbach.wallet.ui.TransactionsAdapter.Warning;
 import de.schildbach.wallet.ui.send.RaiseFeeDialogFragment;
 import de.schildbach.wallet.util.BitmapFragment;
 import de.schildbach.wallet.util.CrashReporter;
 import de.schildbach.wallet.util.Qr;
 import de.schildbach.wallet.util.ThrottlingWalletChangeListener;
-import de.schildbach.wallet.util.WalletUtils;
 import org.globaltoken.wallet.R;
 
 import android.app.Activity;
@@ -73,8 +84,11 @@ import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
 import android.provider.Settings;
 import android.support.v4.content.LocalBroadcastManager;
+import android.support.v7.util.DiffUtil;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
 import android.text.SpannableStringBuilder;
@@ -94,8 +108,9 @@ import android.widget.ViewAnimator;
 /**
  * @author Andreas Schildbach
  */
-public class WalletTransactionsFragment extends Fragment implements LoaderCallbacks<List<Transaction>>,
-        TransactionsAdapter.OnClickListener, OnSharedPreferenceChangeListener {
+public class WalletTransactionsFragment extends Fragment
+        implements LoaderCallbacks<WalletTransactionsFragment.TransactionsUpdate>, TransactionsAdapter.OnClickListener,
+        OnSharedPreferenceChangeListener {
     public enum Direction {
         RECEIVED, SENT
     }
@@ -116,8 +131,14 @@ public class WalletTransactionsFragment extends Fragment implements LoaderCallba
 
     @Nullable
     private Direction direction;
+    @Nullable
+    private List<Transaction> adapterTransactions = null;
+
+    private File snapshotFile;
 
     private final Handler handler = new Handler();
+    private HandlerThread backgroundThread;
+    private Handler backgroundHandler;
 
     private static final int ID_TRANSACTION_LOADER = 0;
     private static final String ARG_DIRECTION = "direction";
@@ -125,13 +146,24 @@ public class WalletTransactionsFragment extends Fragment implements LoaderCallba
     private static final long THROTTLE_MS = DateUtils.SECOND_IN_MILLIS;
     private static final Uri KEY_ROTATION_URI = Uri.parse("https://bitcoin.org/en/alert/2013-08-11-android");
     private static final int SHOW_QR_THRESHOLD_BYTES = 2500;
+    private static final int SNAPSHOT_ROWS = 50;
 
     private static final Logger log = LoggerFactory.getLogger(WalletTransactionsFragment.class);
 
     private final ContentObserver addressBookObserver = new ContentObserver(handler) {
         @Override
         public void onChange(final boolean selfChange) {
-            adapter.clearCacheAndNotifyDataSetChanged();
+            onChange(selfChange, null);
+        }
+
+        @Override
+        public void onChange(final boolean selfChange, final @Nullable Uri uri) {
+            // changes to single entries are notified with the address as first path segment
+            final List<String> pathSegments = uri != null ? uri.getPathSegments() : null;
+            if (pathSegments != null && !pathSegments.isEmpty())
+                adapter.invalidateAddress(pathSegments.get(0));
+            else
+                adapter.clearCacheAndNotifyDataSetChanged();
         }
     };
 
@@ -155,9 +187,22 @@ public class WalletTransactionsFragment extends Fragment implements LoaderCallba
         setRetainInstance(true);
         setHasOptionsMenu(true);
 
-        adapter = new TransactionsAdapter(activity, wallet, true, application.maxConnectedPeers(), this);
+        adapter = new TransactionsAdapter(activity, wallet, application.getTransactionSummaries(), true,
+                application.maxConnectedPeers(), this);
 
         this.direction = null;
+        this.snapshotFile = new File(activity.getCacheDir(), Constants.Files.TRANSACTIONS_SNAPSHOT_FILENAME);
+
+        backgroundThread = new HandlerThread("backgroundThread", Process.THREAD_PRIORITY_BACKGROUND);
+        backgroundThread.start();
+        backgroundHandler = new Handler(backgroundThread.getLooper());
+    }
+
+    @Override
+    public void onDestroy() {
+        backgroundThread.getLooper().quit();
+
+        super.onDestroy();
     }
 
     @Override
@@ -206,24 +251,27 @@ public class WalletTransactionsFragment extends Fragment implements LoaderCallba
         args.putSerializable(ARG_DIRECTION, direction);
         loaderManager.initLoader(ID_TRANSACTION_LOADER, args, this);
 
-        wallet.addCoinsReceivedEventListener(Threading.SAME_THREAD, transactionChangeListener);
-        wallet.addCoinsSentEventListener(Threading.SAME_THREAD, transactionChangeListener);
         wallet.addChangeEventListener(Threading.SAME_THREAD, transactionChangeListener);
         wallet.addTransactionConfidenceEventListener(Threading.SAME_THREAD, transactionChangeListener);
 
         updateView();
+
+        // paint the list from last time, until the first load has finished
+        if (adapterTransactions == null && direction == null)
+            restoreSnapshot();
     }
 
     @Override
     public void onPause() {
         wallet.removeTransactionConfidenceEventListener(transactionChangeListener);
         wallet.removeChangeEventListener(transactionChangeListener);
-        wallet.removeCoinsSentEventListener(transactionChangeListener);
-        wallet.removeCoinsReceivedEventListener(transactionChangeListener);
         transactionChangeListener.removeCallbacks();
 
         loaderManager.destroyLoader(ID_TRANSACTION_LOADER);
 
+        if (adapterTransactions != null && direction == null)
+            writeSnapshot();
+
         config.unregisterOnSharedPreferenceChangeListener(this);
 
         resolver.unregisterContentObserver(addressBookObserver);
@@ -285,11 +333,11 @@ public class WalletTransactionsFragment extends Fragment implements LoaderCallba
 
     @Override
     public void onTransactionMenuClick(final View view, final Transaction tx) {
-        final boolean txSent = tx.getValue(wallet).signum() < 0;
-        final Address txAddress = txSent ? WalletUtils.getToAddressOfSent(tx, wallet)
-                : WalletUtils.getWalletAddressOfReceived(tx, wallet);
+        final TransactionSummaries summaries = application.getTransactionSummaries();
+        final TransactionSummaries.Summary summary = summaries.get(tx);
+        final Address txAddress = summaries.address(tx, summary);
         final byte[] txSerialized = tx.unsafeBitcoinSerialize();
-        final boolean txRotation = tx.getPurpose() == Purpose.KEY_ROTATION;
+        final boolean txRotation = summary.internal;
 
         final PopupMenu popupMenu = new PopupMenu(activity, view);
         popupMenu.inflate(R.menu.wallet_transactions_context);
@@ -424,15 +472,24 @@ public class WalletTransactionsFragment extends Fragment implements LoaderCallba
     }
 
     @Override
-    public Loader<List<Transaction>> onCreateLoader(final int id, final Bundle args) {
-        return new TransactionsLoader(activity, wallet, (Direction) args.getSerializable(ARG_DIRECTION));
+    public Loader<TransactionsUpdate> onCreateLoader(final int id, final Bundle args) {
+        return new TransactionsLoader(activity, wallet, application.getTransactionSummaries(),
+                (Direction) args.getSerializable(ARG_DIRECTION));
     }
 
     @Override
-    public void onLoadFinished(final Loader<List<Transaction>> loader, final List<Transaction> transactions) {
+    public void onLoadFinished(final Loader<TransactionsUpdate> loader, final TransactionsUpdate update) {
         final Direction direction = ((TransactionsLoader) loader).getDirection();
+        final List<Transaction> transactions = update.transactions;
 
-        adapter.replace(transactions);
+        if (update.changed != null)
+            adapter.invalidate(update.changed);
+        // The diff only applies if the adapter still shows what it was computed against.
+        adapter.replace(transactions, update.previous == adapterTransactions ? update.diff : null);
+        adapterTransactions = transactions;
+        // events might have been missed, so check what is being shown
+        if (update.changed == null)
+            adapter.refreshCache();
 
         if (transactions.isEmpty()) {
             viewGroup.setDisplayedChild(1);
@@ -450,30 +507,102 @@ public class WalletTransactionsFragment extends Fragment implements LoaderCallba
         }
     }
 
+    private void restoreSnapshot() {
+        if (!snapshotFile.exists())
+            return;
+        try {
+            final List<Transaction> transactions = adapter.restore(TransactionsSnapshot.read(snapshotFile));
+            if (!transactions.isEmpty()) {
+                adapterTransactions = transactions;
+                viewGroup.setDisplayedChild(2);
+            }
+        } catch (final IOException x) {
+            log.info("cannot restore transactions snapshot: {}", x.getMessage());
+        }
+    }
+
+    private void writeSnapshot() {
+        final List<TransactionsSnapshot.Row> rows = adapter.snapshot(SNAPSHOT_ROWS);
+        backgroundHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    TransactionsSnapshot.write(snapshotFile, rows);
+                } catch (final IOException x) {
+                    log.warn("problem writing transactions snapshot", x);
+                }
+            }
+        });
+    }
+
     @Override
-    public void onLoaderReset(final Loader<List<Transaction>> loader) {
+    public void onLoaderReset(final Loader<TransactionsUpdate> loader) {
         // don't clear the adapter, because it will confuse users
     }
 
+    // Coins and reorganize events reach the adapter through the loader. Confidence changes only matter for bound rows
+    // that aren't settled yet; every new block changes the depth of every transaction.
     private final ThrottlingWalletChangeListener transactionChangeListener = new ThrottlingWalletChangeListener(
-            THROTTLE_MS) {
+            THROTTLE_MS, false, false, true) {
+        @Override
+        public void onTransactionConfidenceChanged(final Wallet wallet, final Transaction tx) {
+            if (adapter.isWatched(tx.getHash()))
+                super.onTransactionConfidenceChanged(wallet, tx);
+        }
+
         @Override
         public void onThrottledWalletChanged() {
-            adapter.notifyDataSetChanged();
+            adapter.notifyConfidenceChanged();
         }
     };
 
-    private static class TransactionsLoader extends AsyncTaskLoader<List<Transaction>> {
+    static class TransactionsUpdate {
+        public final List<Transaction> transactions;
+        @Nullable
+        public final List<Transaction> previous;
+        @Nullable
+        public final DiffUtil.DiffResult diff;
+        /** Transactions that changed since the previous update, or {@code null} if everything was reloaded. */
+        @Nullable
+        public final Set<Sha256Hash> changed;
+
+        private TransactionsUpdate(final List<Transaction> transactions, @Nullable final List<Transaction> previous,
+                @Nullable final DiffUtil.DiffResult diff, @Nullable final Set<Sha256Hash> changed) {
+            this.transactions = transactions;
+            this.previous = previous;
+            this.diff = diff;
+            this.changed = changed;
+        }
+    }
+
+    /**
+     * Keeps the filtered transactions sorted across loads. Only transactions that were reported by wallet events since
+     * the last load are re-evaluated; everything is reloaded after a reorganize, or when the wallet has a different
+     * number of transactions than expected. Each update carries a diff against the previous one.
+     */
+    private static class TransactionsLoader extends AsyncTaskLoader<TransactionsUpdate> {
         private LocalBroadcastManager broadcastManager;
         private final Wallet wallet;
+        private final TransactionSummaries summaries;
         @Nullable
         private final Direction direction;
 
-        private TransactionsLoader(final Context context, final Wallet wallet, @Nullable final Direction direction) {
+        // sort keys of all wallet transactions, including those filtered out
+        private final Map<Sha256Hash, SortKey> keys = new ConcurrentHashMap<Sha256Hash, SortKey>();
+        private final TreeMap<SortKey, Transaction> sorted = new TreeMap<SortKey, Transaction>();
+        private final Set<Sha256Hash> dirty = Collections
+                .newSetFromMap(new ConcurrentHashMap<Sha256Hash, Boolean>());
+        private final AtomicBoolean reloadAll = new AtomicBoolean(true);
+        @Nullable
+        private List<Transaction> lastTransactions = null;
+
+        private TransactionsLoader(final Context context, final Wallet wallet, final TransactionSummaries summaries,
+                @Nullable final Direction direction) {
             super(context);
 
             this.broadcastManager = LocalBroadcastManager.getInstance(context.getApplicationContext());
             this.wallet = wallet;
+            this.summaries = summaries;
             this.direction = direction;
         }
 
@@ -488,6 +617,9 @@ public class WalletTransactionsFragment extends Fragment implements LoaderCallba
             wallet.addCoinsReceivedEventListener(Threading.SAME_THREAD, transactionAddRemoveListener);
             wallet.addCoinsSentEventListener(Threading.SAME_THREAD, transactionAddRemoveListener);
             wallet.addChangeEventListener(Threading.SAME_THREAD, transactionAddRemoveListener);
+            wallet.addReorganizeEventListener(Threading.SAME_THREAD, transactionAddRemoveListener);
+            wallet.addTransactionConfidenceEventListener(Threading.SAME_THREAD, transactionAddRemoveListener);
+            summaries.addUpdateListener(summariesListener);
             broadcastManager.registerReceiver(walletChangeReceiver,
                     new IntentFilter(WalletApplication.ACTION_WALLET_REFERENCE_CHANGED));
             transactionAddRemoveListener.onReorganize(null); // trigger at least one reload
@@ -498,10 +630,15 @@ public class WalletTransactionsFragment extends Fragment implements LoaderCallba
         @Override
         protected void onStopLoading() {
             broadcastManager.unregisterReceiver(walletChangeReceiver);
+            summaries.removeUpdateListener(summariesListener);
+            wallet.removeTransactionConfidenceEventListener(transactionAddRemoveListener);
+            wallet.removeReorganizeEventListener(transactionAddRemoveListener);
             wallet.removeChangeEventListener(transactionAddRemoveListener);
             wallet.removeCoinsSentEventListener(transactionAddRemoveListener);
             wallet.removeCoinsReceivedEventListener(transactionAddRemoveListener);
             transactionAddRemoveListener.removeCallbacks();
+            // events are missed from now on
+            reloadAll.set(true);
 
             super.onStopLoading();
         }
@@ -509,46 +646,157 @@ public class WalletTransactionsFragment extends Fragment implements LoaderCallba
         @Override
         protected void onReset() {
             broadcastManager.unregisterReceiver(walletChangeReceiver);
+            summaries.removeUpdateListener(summariesListener);
+            wallet.removeTransactionConfidenceEventListener(transactionAddRemoveListener);
+            wallet.removeReorganizeEventListener(transactionAddRemoveListener);
             wallet.removeChangeEventListener(transactionAddRemoveListener);
             wallet.removeCoinsSentEventListener(transactionAddRemoveListener);
             wallet.removeCoinsReceivedEventListener(transactionAddRemoveListener);
             transactionAddRemoveListener.removeCallbacks();
+            reloadAll.set(true);
 
             super.onReset();
         }
 
         @Override
-        public List<Transaction> loadInBackground() {
+        public synchronized TransactionsUpdate loadInBackground() {
             org.bitcoinj.core.Context.propagate(Constants.CONTEXT);
 
-            final Set<Transaction> transactions = wallet.getTransactions(true);
-            final List<Transaction> filteredTransactions = new ArrayList<Transaction>(transactions.size());
+            final Set<Sha256Hash> changed = new HashSet<Sha256Hash>();
+            boolean all = reloadAll.getAndSet(false) || keys.size() != walletSize();
+            if (!all) {
+                for (final Iterator<Sha256Hash> i = dirty.iterator(); i.hasNext();) {
+                    final Sha256Hash hash = i.next();
+                    i.remove();
+                    update(hash, wallet.getTransaction(hash));
+                    changed.add(hash);
+                }
+                // transactions can vanish without an event, e.g. during a wallet reset
+                all = keys.size() != walletSize();
+            }
+            if (all) {
+                dirty.clear();
+                keys.clear();
+                sorted.clear();
+                final Set<Transaction> walletTransactions = wallet.getTransactions(true);
+                summaries.sync(walletTransactions);
+                for (final Transaction tx : walletTransactions)
+                    update(tx.getHash(), tx);
+            }
 
-            for (final Transaction tx : transactions) {
-                final boolean sent = tx.getValue(wallet).signum() < 0;
-                final boolean isInternal = tx.getPurpose() == Purpose.KEY_ROTATION;
+            final List<Transaction> transactions = new ArrayList<Transaction>(sorted.values());
+            final List<Transaction> previous = lastTransactions;
+            lastTransactions = transactions;
+            if (all)
+                return new TransactionsUpdate(transactions, null, null, null);
+            if (previous == null)
+                return new TransactionsUpdate(transactions, null, null, changed);
+
+            final DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+                @Override
+                public int getOldListSize() {
+                    return previous.size();
+                }
 
-                if ((direction == Direction.RECEIVED && !sent && !isInternal) || direction == null
-                        || (direction == Direction.SENT && sent && !isInternal))
-                    filteredTransactions.add(tx);
-            }
+                @Override
+                public int getNewListSize() {
+                    return transactions.size();
+                }
+
+                @Override
+                public boolean areItemsTheSame(final int oldItemPosition, final int newItemPosition) {
+                    return previous.get(oldItemPosition).getHash()
+                            .equals(transactions.get(newItemPosition).getHash());
+                }
+
+                @Override
+                public boolean areContentsTheSame(final int oldItemPosition, final int newItemPosition) {
+                    return !changed.contains(transactions.get(newItemPosition).getHash());
+                }
+            });
+            return new TransactionsUpdate(transactions, previous, diff, changed);
+        }
 
-            Collections.sort(filteredTransactions, TRANSACTION_COMPARATOR);
+        private int walletSize() {
+            int size = 0;
+            for (final WalletTransaction.Pool pool : WalletTransaction.Pool.values())
+                size += wallet.getPoolSize(pool);
+            return size;
+        }
 
-            return filteredTransactions;
+        private void update(final Sha256Hash hash, @Nullable final Transaction tx) {
+            final SortKey oldKey = keys.remove(hash);
+            if (oldKey != null)
+                sorted.remove(oldKey);
+            if (tx == null)
+                return;
+
+            final SortKey key = new SortKey(tx);
+            keys.put(hash, key);
+
+            if (direction == null) {
+                sorted.put(key, tx);
+            } else {
+                final TransactionSummaries.Summary summary = summaries.get(tx);
+                final boolean sent = summary.sent;
+                final boolean isInternal = summary.internal;
+                if ((direction == Direction.RECEIVED && !sent && !isInternal)
+                        || (direction == Direction.SENT && sent && !isInternal))
+                    sorted.put(key, tx);
+            }
         }
 
         private final ThrottlingWalletChangeListener transactionAddRemoveListener = new ThrottlingWalletChangeListener(
-                THROTTLE_MS, true, true, false) {
+                THROTTLE_MS, true, true, true) {
+            @Override
+            public void onCoinsReceived(final Wallet wallet, final Transaction tx, final Coin prevBalance,
+                    final Coin newBalance) {
+                dirty.add(tx.getHash());
+                super.onCoinsReceived(wallet, tx, prevBalance, newBalance);
+            }
+
+            @Override
+            public void onCoinsSent(final Wallet wallet, final Transaction tx, final Coin prevBalance,
+                    final Coin newBalance) {
+                dirty.add(tx.getHash());
+                super.onCoinsSent(wallet, tx, prevBalance, newBalance);
+            }
+
+            @Override
+            public void onReorganize(final Wallet wallet) {
+                reloadAll.set(true);
+                super.onReorganize(wallet);
+            }
+
+            @Override
+            public void onTransactionConfidenceChanged(final Wallet wallet, final Transaction tx) {
+                // Most confidence changes are just depth; only reload if the position in the list changes.
+                final SortKey key = keys.get(tx.getHash());
+                if (key == null || !key.equals(new SortKey(tx))) {
+                    dirty.add(tx.getHash());
+                    super.onTransactionConfidenceChanged(wallet, tx);
+                }
+            }
+
             @Override
             public void onThrottledWalletChanged() {
                 safeForceLoad();
             }
         };
 
+        private final OnUpdateListener summariesListener = new OnUpdateListener() {
+            @Override
+            public void onUpdate(final Set<Sha256Hash> hashes) {
+                // connected transactions may have changed value, fee or direction; the reload follows with the
+                // wallet changed event
+                dirty.addAll(hashes);
+            }
+        };
+
         private final BroadcastReceiver walletChangeReceiver = new BroadcastReceiver() {
             @Override
             public void onReceive(final Context context, final Intent intent) {
+                reloadAll.set(true);
                 safeForceLoad();
             }
         };
@@ -561,37 +809,68 @@ public class WalletTransactionsFragment extends Fragment implements LoaderCallba
             }
         }
 
-        private static final Comparator<Transaction> TRANSACTION_COMPARATOR = new Comparator<Transaction>() {
+        /** Snapshot of what a transaction is sorted by, so it can be found again after the transaction changed. */
+        private static final class SortKey implements Comparable<SortKey> {
+            private final boolean pending;
+            private final long time;
+            private final Sha256Hash hash;
+
+            public SortKey(final Transaction tx) {
+                this.pending = tx.getConfidence().getConfidenceType() == ConfidenceType.PENDING;
+                final Date updateTime = tx.getUpdateTime();
+                this.time = updateTime != null ? updateTime.getTime() : 0;
+                this.hash = tx.getHash();
+            }
+
             @Override
-            public int compare(final Transaction tx1, final Transaction tx2) {
-                final boolean pending1 = tx1.getConfidence().getConfidenceType() == ConfidenceType.PENDING;
-                final boolean pending2 = tx2.getConfidence().getConfidenceType() == ConfidenceType.PENDING;
+            public int compareTo(final SortKey other) {
+                if (pending != other.pending)
+                    return pending ? -1 : 1;
 
-                if (pending1 != pending2)
-                    return pending1 ? -1 : 1;
+                if (time != other.time)
+                    return time > other.time ? -1 : 1;
 
-                final Date updateTime1 = tx1.getUpdateTime();
-                final long time1 = updateTime1 != null ? updateTime1.getTime() : 0;
-                final Date updateTime2 = tx2.getUpdateTime();
-                final long time2 = updateTime2 != null ? updateTime2.getTime() : 0;
+                return hash.compareTo(other.hash);
+            }
 
-                if (time1 != time2)
-                    return time1 > time2 ? -1 : 1;
+            @Override
+            public boolean equals(final Object o) {
+                if (o == this)
+                    return true;
+                if (!(o instanceof SortKey))
+                    return false;
+                final SortKey other = (SortKey) o;
+                return pending == other.pending && time == other.time && hash.equals(other.hash);
+            }
 
-                return tx1.getHash().compareTo(tx2.getHash());
+            @Override
+            public int hashCode() {
+                return hash.hashCode();
             }
-        };
+        }
     }
 
     @Override
     public void onSharedPreferenceChanged(final SharedPreferences sharedPreferences, final String key) {
-        if (Configuration.PREFS_KEY_BTC_PRECISION.equals(key) || Configuration.PREFS_KEY_REMIND_BACKUP.equals(key))
+        if (Configuration.PREFS_KEY_BTC_PRECISION.equals(key) || Configuration.PREFS_KEY_REMIND_BACKUP.equals(key)
+                || Configuration.PREFS_KEY_EXCHANGE_CURRENCY.equals(key))
             updateView();
     }
 
     private void updateView() {
         adapter.setFormat(config.getFormat());
         adapter.setWarning(warning());
+        if (Constants.ENABLE_EXCHANGE_RATES)
+            adapter.setExchangeRatesHistory(application.getExchangeRatesHistory(), exchangeCurrencyCode());
+    }
+
+    @Nullable
+    private String exchangeCurrencyCode() {
+        final String exchangeCurrencyCode = config.getExchangeCurrencyCode();
+        if (exchangeCurrencyCode != null)
+            return exchangeCurrencyCode;
+        final ExchangeRate cachedExchangeRate = config.getCachedExchangeRate();
+        return cachedExchangeRate != null ? cachedExchangeRate.getCurrencyCode() : null;
     }
 
     private Warning warning() {
@@ -22,7 +22,11 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import java.io.FileNotFoundException;
 import java.io.InputStream;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.annotation.Nullable;
 
@@ -35,10 +39,13 @@ import org.bitcoinj.core.Sha256Hash;
 import org.bitcoinj.core.Transaction;
 import org.bitcoinj.core.TransactionConfidence;
 import org.bitcoinj.core.TransactionConfidence.ConfidenceType;
+import org.bitcoinj.core.TransactionOutput;
 import org.bitcoinj.core.VerificationException;
 import org.bitcoinj.core.VersionedChecksummedBytes;
 import org.bitcoinj.protocols.payments.PaymentProtocol;
 import org.bitcoinj.utils.MonetaryFormat;
+import org.bitcoinj.wallet.CoinSelection;
+import org.bitcoinj.wallet.CoinSelector;
 import org.bitcoinj.wallet.KeyChain.KeyPurpose;
 import org.bitcoinj.wallet.SendRequest;
 import org.bitcoinj.wallet.Wallet;
@@ -186,12 +193,23 @@ public final class SendCoinsFragment extends Fragment {
 
     private Transaction dryrunTransaction;
     private Exception dryrunException;
+    private int dryrunGeneration = 0;
+    @Nullable
+    private Runnable pendingDryrun = null;
+    @Nullable
+    private ReusingCoinSelector dryrunCoinSelector = null;
+    @Nullable
+    private Coin dryrunAmount = null;
+    @Nullable
+    private PaymentIntent dryrunPaymentIntent = null;
 
     private static final int ID_DYNAMIC_FEES_LOADER = 0;
     private static final int ID_RATE_LOADER = 1;
     private static final int ID_BLOCKCHAIN_STATE_LOADER = 2;
     private static final int ID_RECEIVING_ADDRESS_BOOK_LOADER = 3;
 
+    private static final long DRYRUN_DEBOUNCE_MS = 250;
+
     private static final int REQUEST_CODE_SCAN = 0;
     private static final int REQUEST_CODE_ENABLE_BLUETOOTH_FOR_PAYMENT_REQUEST = 1;
     private static final int REQUEST_CODE_ENABLE_BLUETOOTH_FOR_DIRECT_PAYMENT = 2;
@@ -257,7 +275,8 @@ public final class SendCoinsFragment extends Fragment {
         @Override
         public void changed() {
             updateView();
-            handler.post(dryrunRunnable);
+            handler.removeCallbacks(dryrunRunnable);
+            handler.postDelayed(dryrunRunnable, DRYRUN_DEBOUNCE_MS);
         }
 
         @Override
@@ -602,8 +621,8 @@ public final class SendCoinsFragment extends Fragment {
         directPaymentMessageView = (TextView) view.findViewById(R.id.send_coins_direct_payment_message);
 
         sentTransactionView = (FrameLayout) view.findViewById(R.id.send_coins_sent_transaction);
-        sentTransactionAdapter = new TransactionsAdapter(activity, wallet, false, application.maxConnectedPeers(),
-                null);
+        sentTransactionAdapter = new TransactionsAdapter(activity, wallet, application.getTransactionSummaries(), false,
+                application.maxConnectedPeers(), null);
         sentTransactionViewHolder = sentTransactionAdapter.createTransactionViewHolder(sentTransactionView);
         sentTransactionView.addView(sentTransactionViewHolder.itemView,
                 new FrameLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.WRAP_CONTENT));
@@ -684,12 +703,15 @@ public final class SendCoinsFragment extends Fragment {
     @Override
     public void onDetach() {
         handler.removeCallbacksAndMessages(null);
+        if (pendingDryrun != null)
+            backgroundHandler.removeCallbacks(pendingDryrun);
 
         super.onDetach();
     }
 
     @Override
     public void onDestroy() {
+        dryrunGeneration++;
         backgroundThread.getLooper().quit();
 
         if (sentTransaction != null)
@@ -929,7 +951,11 @@ public final class SendCoinsFragment extends Fragment {
         final SendRequest sendRequest = finalPaymentIntent.toSendRequest();
         sendRequest.emptyWallet = paymentIntent.mayEditAmount()
                 && finalAmount.equals(wallet.getBalance(BalanceType.AVAILABLE));
-        sendRequest.feePerKb = fees.get(feeCategory);
+        final FeeCategory finalFeeCategory = feeCategory;
+        sendRequest.feePerKb = fees.get(finalFeeCategory);
+        // replay the selection of the dry run, so the fee paid is the fee shown
+        sendRequest.coinSelector = dryrunCoinSelector != null && finalAmount.equals(dryrunAmount)
+                && paymentIntent == dryrunPaymentIntent ? dryrunCoinSelector : application.getCoinSelector();
         sendRequest.memo = paymentIntent.memo;
         sendRequest.exchangeRate = amountCalculatorLink.getExchangeRate();
         sendRequest.aesKey = encryptionKey;
@@ -952,6 +978,8 @@ public final class SendCoinsFragment extends Fragment {
                 if (directPaymentEnableView.isChecked())
                     directPay(payment);
 
+                if (application.getDynamicFeeCache().isLocalEstimate(finalFeeCategory))
+                    application.getFeeEstimator().ignore(sentTransaction.getHash());
                 application.broadcastTransaction(sentTransaction);
 
                 final ComponentName callingActivity = activity.getCallingActivity();
@@ -1091,7 +1119,7 @@ public final class SendCoinsFragment extends Fragment {
         handler.post(dryrunRunnable);
     }
 
-    private Runnable dryrunRunnable = new Runnable() {
+    private final Runnable dryrunRunnable = new Runnable() {
         @Override
         public void run() {
             if (state == State.INPUT)
@@ -1101,28 +1129,108 @@ public final class SendCoinsFragment extends Fragment {
         }
 
         private void executeDryrun() {
+            final int generation = ++dryrunGeneration;
             dryrunTransaction = null;
             dryrunException = null;
+            if (pendingDryrun != null)
+                backgroundHandler.removeCallbacks(pendingDryrun);
+            pendingDryrun = null;
 
             final Coin amount = amountCalculatorLink.getAmount();
-            if (amount != null && fees != null) {
-                try {
-                    final Address dummy = wallet.currentReceiveAddress(); // won't be used, tx is never
-                                                                          // committed
-                    final SendRequest sendRequest = paymentIntent.mergeWithEditedValues(amount, dummy).toSendRequest();
-                    sendRequest.signInputs = false;
-                    sendRequest.emptyWallet = paymentIntent.mayEditAmount()
-                            && amount.equals(wallet.getBalance(BalanceType.AVAILABLE));
-                    sendRequest.feePerKb = fees.get(feeCategory);
-                    wallet.completeTx(sendRequest);
-                    dryrunTransaction = sendRequest.tx;
-                } catch (final Exception x) {
-                    dryrunException = x;
+            if (amount == null || fees == null)
+                return;
+
+            // Only the fee category changed, so the previous coin selection is likely to fit again if the fee went up.
+            final PaymentIntent paymentIntent = SendCoinsFragment.this.paymentIntent;
+            if (dryrunCoinSelector == null || !amount.equals(dryrunAmount) || paymentIntent != dryrunPaymentIntent)
+                dryrunCoinSelector = new ReusingCoinSelector(application.getCoinSelector());
+            dryrunAmount = amount;
+            dryrunPaymentIntent = paymentIntent;
+
+            final Coin feePerKb = fees.get(feeCategory);
+            final ReusingCoinSelector coinSelector = dryrunCoinSelector;
+            pendingDryrun = new Runnable() {
+                @Override
+                public void run() {
+                    org.bitcoinj.core.Context.propagate(Constants.CONTEXT);
+
+                    Transaction transaction = null;
+                    Exception exception = null;
+                    try {
+                        final Address dummy = wallet.currentReceiveAddress(); // won't be used, tx is never
+                                                                              // committed
+                        final SendRequest sendRequest = paymentIntent.mergeWithEditedValues(amount, dummy)
+                                .toSendRequest();
+                        sendRequest.signInputs = false;
+                        sendRequest.emptyWallet = paymentIntent.mayEditAmount()
+                                && amount.equals(wallet.getBalance(BalanceType.AVAILABLE));
+                        sendRequest.feePerKb = feePerKb;
+                        sendRequest.coinSelector = coinSelector;
+                        wallet.completeTx(sendRequest);
+                        transaction = sendRequest.tx;
+                    } catch (final Exception x) {
+                        exception = x;
+                    }
+
+                    final Transaction dryrunTransaction = transaction;
+                    final Exception dryrunException = exception;
+                    handler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            // drop results that have been overtaken by newer input
+                            if (generation != dryrunGeneration || state != State.INPUT)
+                                return;
+                            SendCoinsFragment.this.dryrunTransaction = dryrunTransaction;
+                            SendCoinsFragment.this.dryrunException = dryrunException;
+                            pendingDryrun = null;
+                            updateView();
+                        }
+                    });
                 }
-            }
+            };
+            backgroundHandler.post(pendingDryrun);
         }
     };
 
+    /**
+     * Coin selector that remembers its selection per target and hands it out again as long as its outputs are still
+     * candidates. The actual send uses the selector of the last dry run, so it ends up with the same inputs and fee
+     * as shown. For a new target, the latest selection is reused if it still covers the target, so that raising just
+     * the fee doesn't redo the selection. A lower target always selects again, otherwise a lower fee would keep a
+     * larger input set.
+     */
+    private static class ReusingCoinSelector implements CoinSelector {
+        private final CoinSelector delegate;
+        private final Map<Coin, CoinSelection> selections = new HashMap<Coin, CoinSelection>();
+        @Nullable
+        private CoinSelection lastSelection = null;
+        @Nullable
+        private Coin lastTarget = null;
+
+        public ReusingCoinSelector(final CoinSelector delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public CoinSelection select(final Coin target, final List<TransactionOutput> candidates) {
+            final Set<TransactionOutput> candidateSet = new HashSet<TransactionOutput>(candidates);
+            CoinSelection selection = selections.get(target);
+            if (selection == null || !candidateSet.containsAll(selection.gathered)) {
+                if (lastSelection != null && !target.isLessThan(lastTarget)
+                        && !lastSelection.valueGathered.isLessThan(target)
+                        && candidateSet.containsAll(lastSelection.gathered)) {
+                    selection = lastSelection;
+                } else {
+                    selection = delegate.select(target, candidates);
+                    lastSelection = selection;
+                    lastTarget = target;
+                }
+                selections.put(target, selection);
+            }
+            return selection;
+        }
+    }
+
     private void setState(final State state) {
         this.state = state;
 
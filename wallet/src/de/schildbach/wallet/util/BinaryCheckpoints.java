@@ -0,0 +1,117 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel.MapMode;
+
+import javax.annotation.Nullable;
+
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.store.BlockStore;
+import org.bitcoinj.store.BlockStoreException;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import android.text.format.DateUtils;
+
+/**
+ * Checkpoints as fixed size records, generated from the text checkpoints at build time by the
+ * {@code checkpointsBinary} task. The file starts with magic, version, record size and record count as big endian
+ * integers, followed by the compact serialized {@link StoredBlock}s in chain order. As the records are sorted by time,
+ * the checkpoint for a given time is found by a binary search over the memory mapped file, without parsing all of it.
+ */
+public class BinaryCheckpoints {
+    public static final int MAGIC = 0x43484B50; // "CHKP"
+    public static final int VERSION = 1;
+
+    private static final int FILE_HEADER_SIZE = 16;
+    private static final int BLOCK_TIME_OFFSET = 68; // after version, previous block hash and merkle root
+
+    /**
+     * Like {@link org.bitcoinj.core.CheckpointManager#checkpoint}, puts the last checkpoint at least a week before the
+     * given time into the block store and makes it the chain head. Does nothing if there is no such checkpoint.
+     *
+     * @param filename
+     *            asset file, which must be stored uncompressed so it can be memory mapped
+     */
+    public static void checkpoint(final NetworkParameters params, final AssetManager assets, final String filename,
+            final BlockStore store, final long timeSecs) throws IOException, BlockStoreException {
+        final AssetFileDescriptor fd = assets.openFd(filename);
+        final FileInputStream is = fd.createInputStream();
+        final ByteBuffer buffer;
+        try {
+            buffer = is.getChannel().map(MapMode.READ_ONLY, fd.getStartOffset(), fd.getLength());
+        } finally {
+            is.close();
+        }
+
+        final StoredBlock checkpoint = checkpointBefore(params, buffer,
+                timeSecs - DateUtils.WEEK_IN_MILLIS / DateUtils.SECOND_IN_MILLIS);
+        if (checkpoint != null) {
+            store.put(checkpoint);
+            store.setChainHead(checkpoint);
+        }
+    }
+
+    /**
+     * @return last checkpoint whose block time is not after the given time, or {@code null} if there is none
+     */
+    @Nullable
+    public static StoredBlock checkpointBefore(final NetworkParameters params, final ByteBuffer buffer,
+            final long timeSecs) throws IOException {
+        if (buffer.capacity() < FILE_HEADER_SIZE || buffer.getInt(0) != MAGIC)
+            throw new IOException("not a checkpoints file");
+        if (buffer.getInt(4) != VERSION)
+            throw new IOException("unsupported version: " + buffer.getInt(4));
+        final int recordSize = buffer.getInt(8);
+        final int count = buffer.getInt(12);
+        if (count == 0)
+            return null;
+        if (recordSize != StoredBlock.COMPACT_SERIALIZED_SIZE)
+            throw new IOException("unexpected record size: " + recordSize);
+        if (count < 0 || buffer.capacity() != FILE_HEADER_SIZE + (long) count * recordSize)
+            throw new IOException("truncated checkpoints file");
+
+        // block times are little endian
+        final ByteBuffer times = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        final int timeOffset = FILE_HEADER_SIZE + recordSize - Block.HEADER_SIZE + BLOCK_TIME_OFFSET;
+        int low = 0, high = count - 1, found = -1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final long time = times.getInt(timeOffset + mid * recordSize) & 0xffffffffL;
+            if (time <= timeSecs) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (found == -1)
+            return null;
+
+        final ByteBuffer record = buffer.duplicate();
+        record.position(FILE_HEADER_SIZE + found * recordSize);
+        return StoredBlock.deserializeCompact(params, record);
+    }
+}
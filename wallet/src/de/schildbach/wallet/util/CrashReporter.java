@@ -246,6 +246,9 @@ public class CrashReporter {
             report.append(" " + db);
         report.append("\n");
 
+        report.append("\nHTTP endpoints:\n");
+        Constants.HTTP_METRICS.appendReport(report);
+
         final File filesDir = application.getFilesDir();
         report.append("\nContents of FilesDir " + filesDir + ":\n");
         appendDir(report, filesDir, 0);
@@ -18,12 +18,17 @@
 package de.schildbach.wallet.util;
 
 import java.io.BufferedReader;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nullable;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.squareup.okhttp.CacheControl;
 import com.squareup.okhttp.Call;
 import com.squareup.okhttp.HttpUrl;
 import com.squareup.okhttp.Request;
@@ -32,20 +37,35 @@ import com.squareup.okhttp.Response;
 import de.schildbach.wallet.Constants;
 
 /**
+ * Fetches the first line of a resource on a shared background thread, bypassing the HTTP cache so that the server
+ * time is current.
+ *
  * @author Andreas Schildbach
  */
-public abstract class HttpGetThread extends Thread {
+public abstract class HttpGetTask implements Runnable {
     private final HttpUrl url;
     @Nullable
     private final String userAgent;
 
-    private static final Logger log = LoggerFactory.getLogger(HttpGetThread.class);
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.MINUTES,
+            new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactoryBuilder().setNameFormat("http-get").setDaemon(true).build());
+
+    static {
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(HttpGetTask.class);
 
-    public HttpGetThread(final HttpUrl url, @Nullable final String userAgent) {
+    public HttpGetTask(final HttpUrl url, @Nullable final String userAgent) {
         this.url = url;
         this.userAgent = userAgent;
     }
 
+    public void start() {
+        executor.execute(this);
+    }
+
     @Override
     public void run() {
         log.debug("querying \"{}\"...", url);
@@ -53,6 +73,7 @@ public abstract class HttpGetThread extends Thread {
         final Request.Builder request = new Request.Builder();
         request.url(url);
         request.header("Accept-Charset", "utf-8");
+        request.cacheControl(CacheControl.FORCE_NETWORK);
         if (userAgent != null)
             request.header("User-Agent", userAgent);
 
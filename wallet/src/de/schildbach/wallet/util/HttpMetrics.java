@@ -0,0 +1,140 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.squareup.okhttp.Interceptor;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.RequestBody;
+import com.squareup.okhttp.Response;
+import com.squareup.okhttp.ResponseBody;
+
+import okio.Buffer;
+import okio.ForwardingSource;
+import okio.Okio;
+import okio.Source;
+
+/**
+ * Interceptor that keeps per-endpoint statistics about HTTP calls: number of calls, cache hits, errors, bytes sent
+ * and received, and a histogram of the time it took until response headers arrived. An endpoint is the host plus
+ * path of the URL; the number of distinct endpoints is bounded.
+ */
+public class HttpMetrics implements Interceptor {
+    private final Map<String, Endpoint> endpoints = new TreeMap<String, Endpoint>();
+
+    private static final long[] LATENCY_BUCKETS_MS = { 100, 250, 500, 1000, 2500, 5000, 10000 };
+    private static final int MAX_ENDPOINTS = 32;
+    private static final String OTHER_ENDPOINT = "(other)";
+
+    private static final class Endpoint {
+        private int calls, cacheHits, errors;
+        private long bytesOut, bytesIn;
+        private final int[] latencies = new int[LATENCY_BUCKETS_MS.length + 1];
+    }
+
+    @Override
+    public Response intercept(final Chain chain) throws IOException {
+        final Request request = chain.request();
+        final String endpointName = request.httpUrl().host() + request.httpUrl().encodedPath();
+        final RequestBody requestBody = request.body();
+        final long bytesOut = requestBody != null ? Math.max(requestBody.contentLength(), 0) : 0;
+
+        final long start = System.currentTimeMillis();
+        final Response response;
+        try {
+            response = chain.proceed(request);
+        } catch (final IOException x) {
+            record(endpointName, bytesOut, System.currentTimeMillis() - start, false, true);
+            throw x;
+        }
+        record(endpointName, bytesOut, System.currentTimeMillis() - start, response.networkResponse() == null,
+                response.code() >= 400);
+
+        final ResponseBody body = response.body();
+        if (body == null)
+            return response;
+        final Source countingSource = new ForwardingSource(body.source()) {
+            @Override
+            public long read(final Buffer sink, final long byteCount) throws IOException {
+                final long read = super.read(sink, byteCount);
+                if (read > 0)
+                    recordBytesIn(endpointName, read);
+                return read;
+            }
+        };
+        return response.newBuilder()
+                .body(ResponseBody.create(body.contentType(), body.contentLength(), Okio.buffer(countingSource)))
+                .build();
+    }
+
+    private synchronized void record(final String endpointName, final long bytesOut, final long latencyMs,
+            final boolean cacheHit, final boolean error) {
+        final Endpoint endpoint = endpoint(endpointName);
+        endpoint.calls++;
+        if (cacheHit)
+            endpoint.cacheHits++;
+        if (error)
+            endpoint.errors++;
+        endpoint.bytesOut += bytesOut;
+        int bucket = 0;
+        while (bucket < LATENCY_BUCKETS_MS.length && latencyMs > LATENCY_BUCKETS_MS[bucket])
+            bucket++;
+        endpoint.latencies[bucket]++;
+    }
+
+    private synchronized void recordBytesIn(final String endpointName, final long bytesIn) {
+        endpoint(endpointName).bytesIn += bytesIn;
+    }
+
+    private Endpoint endpoint(final String endpointName) {
+        Endpoint endpoint = endpoints.get(endpointName);
+        if (endpoint == null) {
+            final String name = endpoints.size() < MAX_ENDPOINTS ? endpointName : OTHER_ENDPOINT;
+            endpoint = endpoints.get(name);
+            if (endpoint == null) {
+                endpoint = new Endpoint();
+                endpoints.put(name, endpoint);
+            }
+        }
+        return endpoint;
+    }
+
+    public synchronized void appendReport(final Appendable report) throws IOException {
+        if (endpoints.isEmpty()) {
+            report.append("none\n");
+            return;
+        }
+        for (final Map.Entry<String, Endpoint> entry : endpoints.entrySet()) {
+            final Endpoint endpoint = entry.getValue();
+            report.append(entry.getKey()).append(": ");
+            report.append(String.format(Locale.US, "%d calls, %d cached, %d errors, %d bytes out, %d bytes in",
+                    endpoint.calls, endpoint.cacheHits, endpoint.errors, endpoint.bytesOut, endpoint.bytesIn));
+            report.append(", latency");
+            for (int i = 0; i < endpoint.latencies.length; i++) {
+                report.append(i < LATENCY_BUCKETS_MS.length ? " <=" + LATENCY_BUCKETS_MS[i] + "ms:"
+                        : " >" + LATENCY_BUCKETS_MS[i - 1] + "ms:");
+                report.append(Integer.toString(endpoint.latencies[i]));
+            }
+            report.append('\n');
+        }
+    }
+}
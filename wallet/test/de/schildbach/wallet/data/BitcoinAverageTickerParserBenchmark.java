@@ -0,0 +1,115 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.data;
+
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.bitcoinj.utils.Fiat;
+import org.bitcoinj.utils.MonetaryFormat;
+import org.json.JSONObject;
+
+import com.google.common.io.ByteStreams;
+
+import okio.Buffer;
+
+/**
+ * Compares the streaming ticker parser against the former {@code JSONObject} based parsing, on the sample response.
+ * Not a unit test; run its main method on a JVM.
+ */
+public class BitcoinAverageTickerParserBenchmark {
+    private static final int WARMUP_ROUNDS = 200;
+    private static final int ROUNDS = 1000;
+    private static final double GLT_BTC_CONVERSION = 0.00001234;
+
+    public static void main(final String[] args) throws Exception {
+        final InputStream is = BitcoinAverageTickerParserBenchmark.class
+                .getResourceAsStream("bitcoinaverage-ticker-short.json");
+        final byte[] response = ByteStreams.toByteArray(is);
+        is.close();
+
+        System.out.println("response: " + response.length + " bytes, " + streaming(response).size() + " rates");
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            jsonObject(response);
+            streaming(response);
+        }
+
+        long jsonObjectNanos = 0, streamingNanos = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            final long start = System.nanoTime();
+            jsonObject(response);
+            final long middle = System.nanoTime();
+            streaming(response);
+            final long end = System.nanoTime();
+            jsonObjectNanos += middle - start;
+            streamingNanos += end - middle;
+        }
+
+        System.out.printf("JSONObject: %,d ns/op%n", jsonObjectNanos / ROUNDS);
+        System.out.printf("streaming:  %,d ns/op%n", streamingNanos / ROUNDS);
+    }
+
+    private static Map<String, Fiat> streaming(final byte[] response) throws Exception {
+        final BigDecimal btcConversion = BigDecimal.valueOf(GLT_BTC_CONVERSION);
+        final Map<String, BigDecimal> btcRates = BitcoinAverageTickerParser.parse(new Buffer().write(response));
+        final Map<String, Fiat> rates = new TreeMap<String, Fiat>();
+        for (final Map.Entry<String, BigDecimal> entry : btcRates.entrySet())
+            rates.put(entry.getKey(),
+                    BitcoinAverageTickerParser.toFiat(entry.getKey(), entry.getValue(), btcConversion));
+        return rates;
+    }
+
+    /** The parsing as it was done before the streaming parser. */
+    private static Map<String, Fiat> jsonObject(final byte[] response) throws Exception {
+        final String content = new String(response, "UTF-8");
+        final JSONObject head = new JSONObject(content);
+        final Map<String, Fiat> rates = new TreeMap<String, Fiat>();
+
+        for (final Iterator<String> i = head.keys(); i.hasNext();) {
+            final String currencyCode = i.next();
+            if (currencyCode.startsWith("BTC")) {
+                final String fiatCurrencyCode = currencyCode.substring(3);
+                if (!fiatCurrencyCode.equals(MonetaryFormat.CODE_BTC)
+                        && !fiatCurrencyCode.equals(MonetaryFormat.CODE_MBTC)
+                        && !fiatCurrencyCode.equals(MonetaryFormat.CODE_UBTC)) {
+                    final JSONObject exchangeRate = head.getJSONObject(currencyCode);
+                    final JSONObject averages = exchangeRate.getJSONObject("averages");
+                    final float value = Float.valueOf(averages.getString("day"));
+                    final String rate = String.format("%.02f", value).replace(",", ".");
+                    final double btcRate = Double.parseDouble(Fiat.parseFiat(fiatCurrencyCode, rate).toPlainString());
+                    final DecimalFormat df = new DecimalFormat("#.########");
+                    df.setRoundingMode(RoundingMode.HALF_UP);
+                    final DecimalFormatSymbols dfs = new DecimalFormatSymbols();
+                    dfs.setDecimalSeparator('.');
+                    dfs.setGroupingSeparator(',');
+                    df.setDecimalFormatSymbols(dfs);
+                    final long gltRate = new BigDecimal(df.format(btcRate * GLT_BTC_CONVERSION))
+                            .movePointRight(Fiat.SMALLEST_UNIT_EXPONENT).longValue();
+                    rates.put(fiatCurrencyCode, Fiat.valueOf(fiatCurrencyCode, gltRate));
+                }
+            }
+        }
+        return rates;
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.Map;
+
+import org.bitcoinj.utils.Fiat;
+import org.junit.Test;
+
+import okio.Buffer;
+import okio.Okio;
+
+public class BitcoinAverageTickerParserTest {
+    @Test
+    public void parseDayAverages() throws Exception {
+        final Map<String, BigDecimal> rates = parse("{\"BTCUSD\":{\"last\":7133.42,\"averages\":{\"day\":7100.5,"
+                + "\"week\":6900.12}},\"BTCEUR\":{\"averages\":{\"week\":1,\"day\":6123.45},\"timestamp\":1}}");
+        assertEquals(2, rates.size());
+        assertEquals(new BigDecimal("7100.5"), rates.get("USD"));
+        assertEquals(new BigDecimal("6123.45"), rates.get("EUR"));
+    }
+
+    @Test
+    public void skipBitcoinUnitsAndForeignSymbols() throws Exception {
+        final Map<String, BigDecimal> rates = parse("{\"BTCBTC\":{\"averages\":{\"day\":1}},"
+                + "\"BTCmBTC\":{\"averages\":{\"day\":1000}},\"ETHUSD\":{\"averages\":{\"day\":300}},"
+                + "\"BTC\":{\"averages\":{\"day\":2}},\"BTCUSD\":{\"averages\":{\"day\":7000}}}");
+        assertEquals(1, rates.size());
+        assertEquals(new BigDecimal("7000"), rates.get("USD"));
+    }
+
+    @Test
+    public void skipMissingAndBrokenValues() throws Exception {
+        final Map<String, BigDecimal> rates = parse("{\"BTCUSD\":{\"averages\":{\"week\":7000}},"
+                + "\"BTCEUR\":{\"averages\":{\"day\":null}},\"BTCGBP\":{\"averages\":{\"day\":\"n/a\"}},"
+                + "\"BTCJPY\":{\"averages\":{\"day\":0}},\"BTCCHF\":{\"averages\":null},"
+                + "\"BTCCAD\":{\"averages\":{\"day\":\"9000.1\"}}}");
+        assertEquals(1, rates.size());
+        assertEquals(new BigDecimal("9000.1"), rates.get("CAD"));
+    }
+
+    @Test
+    public void parseSampleResponse() throws Exception {
+        final Map<String, BigDecimal> rates = BitcoinAverageTickerParser.parse(
+                Okio.buffer(Okio.source(getClass().getResourceAsStream("bitcoinaverage-ticker-short.json"))));
+        assertTrue(rates.size() > 100);
+        assertEquals(new BigDecimal("2118.55"), rates.get("AED"));
+        assertFalse(rates.containsKey("BTC"));
+    }
+
+    @Test
+    public void toFiat() throws Exception {
+        final BigDecimal btcConversion = new BigDecimal("0.00001234");
+        assertEquals(Fiat.valueOf("USD", 880),
+                BitcoinAverageTickerParser.toFiat("USD", new BigDecimal("7133.42"), btcConversion));
+        assertEquals(Fiat.valueOf("USD", 1),
+                BitcoinAverageTickerParser.toFiat("USD", new BigDecimal("5"), btcConversion));
+        assertEquals(Fiat.valueOf("USD", 0),
+                BitcoinAverageTickerParser.toFiat("USD", new BigDecimal("4"), btcConversion));
+    }
+
+    private static Map<String, BigDecimal> parse(final String json) throws Exception {
+        return BitcoinAverageTickerParser.parse(new Buffer().writeUtf8(json));
+    }
+}
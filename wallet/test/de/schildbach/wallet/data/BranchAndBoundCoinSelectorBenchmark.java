@@ -0,0 +1,111 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.params.TestNet3Params;
+import org.bitcoinj.script.ScriptBuilder;
+import org.bitcoinj.wallet.CoinSelection;
+import org.bitcoinj.wallet.CoinSelector;
+import org.bitcoinj.wallet.DefaultCoinSelector;
+import org.bitcoinj.wallet.Wallet;
+
+/**
+ * Compares {@link BranchAndBoundCoinSelector} against the stock {@link DefaultCoinSelector}, on synthetic wallets
+ * of 10k to 100k confirmed outputs. Each send iterates selection and fee the way {@code Wallet.completeTx} does, and
+ * the resulting fee is estimated from the number of inputs and outputs. Not a unit test; run its main method on a
+ * JVM.
+ */
+public class BranchAndBoundCoinSelectorBenchmark {
+    private static final NetworkParameters PARAMS = TestNet3Params.get();
+    private static final int[] WALLET_SIZES = { 10000, 25000, 50000, 100000 };
+    private static final int SENDS = 20;
+    private static final Coin FEE_PER_KB = Coin.valueOf(50000);
+    private static final int TX_OVERHEAD_BYTES = 10, INPUT_BYTES = 148, OUTPUT_BYTES = 34;
+
+    public static void main(final String[] args) throws Exception {
+        Context.propagate(new Context(PARAMS));
+        final Random random = new Random(0);
+        final ECKey key = new ECKey();
+
+        for (final int walletSize : WALLET_SIZES) {
+            final List<TransactionOutput> candidates = new ArrayList<TransactionOutput>(walletSize);
+            for (int i = 0; i < walletSize; i++) {
+                // log-uniform between 10 kSat and 1 coin
+                final long value = (long) (10000 * Math.pow(10000, random.nextDouble()));
+                final Transaction tx = new Transaction(PARAMS);
+                tx.addInput(Sha256Hash.ZERO_HASH, i, new ScriptBuilder().build()); // unique hash
+                tx.addOutput(Coin.valueOf(value), key.toAddress(PARAMS));
+                tx.getConfidence().setAppearedAtChainHeight(1 + random.nextInt(1000));
+                candidates.add(tx.getOutput(0));
+            }
+            final long[] amounts = new long[SENDS];
+            for (int i = 0; i < SENDS; i++)
+                amounts[i] = (long) (100000 * Math.pow(1000, random.nextDouble()));
+
+            final CoinSelector stock = new DefaultCoinSelector();
+            final CoinSelector branchAndBound = new BranchAndBoundCoinSelector(new UtxoIndex(new Wallet(PARAMS)));
+            // warmup, and lets the index build itself
+            send(stock, candidates, amounts[0]);
+            send(branchAndBound, candidates, amounts[0]);
+
+            System.out.printf("%,d outputs:%n", walletSize);
+            run("stock", stock, candidates, amounts);
+            run("branch-and-bound", branchAndBound, candidates, amounts);
+        }
+    }
+
+    private static void run(final String name, final CoinSelector selector, final List<TransactionOutput> candidates,
+            final long[] amounts) {
+        long nanos = 0, fees = 0;
+        for (final long amount : amounts) {
+            final long start = System.nanoTime();
+            fees += send(selector, candidates, amount);
+            nanos += System.nanoTime() - start;
+        }
+        System.out.printf("  %-17s %,12d ns/send, %,8d sat average fee%n", name, nanos / amounts.length,
+                fees / amounts.length);
+    }
+
+    /** @return fee of the resulting transaction */
+    private static long send(final CoinSelector selector, final List<TransactionOutput> candidates,
+            final long amount) {
+        int size = TX_OVERHEAD_BYTES + OUTPUT_BYTES;
+        while (true) {
+            final long fee = FEE_PER_KB.value * size / 1000;
+            final CoinSelection selection = selector.select(Coin.valueOf(amount + fee),
+                    new ArrayList<TransactionOutput>(candidates));
+            final boolean change = selection.valueGathered.value > amount + fee;
+            final int newSize = TX_OVERHEAD_BYTES + OUTPUT_BYTES * (change ? 2 : 1)
+                    + INPUT_BYTES * selection.gathered.size();
+            if (newSize <= size)
+                return fee;
+            size = newSize;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.params.TestNet3Params;
+import org.bitcoinj.script.ScriptBuilder;
+import org.bitcoinj.wallet.CoinSelection;
+import org.bitcoinj.wallet.Wallet;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BranchAndBoundCoinSelectorTest {
+    private static final NetworkParameters PARAMS = TestNet3Params.get();
+
+    private final ECKey key = new ECKey();
+    private final List<TransactionOutput> candidates = new ArrayList<TransactionOutput>();
+    private BranchAndBoundCoinSelector selector;
+
+    @Before
+    public void setUp() throws Exception {
+        Context.propagate(new Context(PARAMS));
+        selector = new BranchAndBoundCoinSelector(new UtxoIndex(new Wallet(PARAMS)));
+    }
+
+    @Test
+    public void exactMatch() throws Exception {
+        for (final long value : new long[] { 100000, 70000, 50000, 30000, 20000 })
+            candidates.add(output(value, true));
+
+        final CoinSelection selection = selector.select(Coin.valueOf(90000), candidates);
+        assertEquals(Coin.valueOf(90000), selection.valueGathered);
+    }
+
+    @Test
+    public void fallbackWithChange() throws Exception {
+        for (final long value : new long[] { 5000000, 1300000, 400000, 200000 })
+            candidates.add(output(value, true));
+
+        final CoinSelection selection = selector.select(Coin.valueOf(1350000), candidates);
+        assertTrue(selection.valueGathered.isGreaterThan(Coin.valueOf(1350000)));
+        assertEquals(sum(selection), selection.valueGathered);
+    }
+
+    @Test
+    public void insufficientMoney() throws Exception {
+        candidates.add(output(30000, true));
+        candidates.add(output(20000, true));
+        candidates.add(output(1000000, false));
+
+        final CoinSelection selection = selector.select(Coin.valueOf(100000), candidates);
+        assertEquals(Coin.valueOf(50000), selection.valueGathered);
+        assertEquals(2, selection.gathered.size());
+    }
+
+    @Test
+    public void branchAndBound() throws Exception {
+        assertTrue(BranchAndBoundCoinSelector.branchAndBound(new long[] { 5, 3 }, 8, 3, 1)[1]);
+        assertFalse(BranchAndBoundCoinSelector.branchAndBound(new long[] { 5, 3 }, 8, 3, 1)[0]);
+        assertNull(BranchAndBoundCoinSelector.branchAndBound(new long[] { 5, 3 }, 8, 4, 2));
+        assertNull(BranchAndBoundCoinSelector.branchAndBound(new long[] { 5, 3, 2, 1 }, 11, 6, 1));
+    }
+
+    private TransactionOutput output(final long value, final boolean confirmed) {
+        final Transaction tx = new Transaction(PARAMS);
+        tx.addInput(Sha256Hash.ZERO_HASH, candidates.size(), new ScriptBuilder().build()); // unique hash
+        final TransactionOutput output = tx.addOutput(Coin.valueOf(value), key.toAddress(PARAMS));
+        if (confirmed)
+            tx.getConfidence().setAppearedAtChainHeight(1);
+        return output;
+    }
+
+    private static Coin sum(final CoinSelection selection) {
+        Coin sum = Coin.ZERO;
+        for (final TransactionOutput output : selection.gathered)
+            sum = sum.add(output.getValue());
+        return sum;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.List;
+
+import org.bitcoinj.utils.Fiat;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ExchangeRatesHistoryTest {
+    private static final long HOUR = 60 * 60 * 1000;
+    private static final long START = 1500000000000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File dir;
+    private ExchangeRatesHistory history;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = new File(folder.getRoot(), "history");
+        history = new ExchangeRatesHistory(dir);
+    }
+
+    @Test
+    public void appendAndQuery() throws Exception {
+        for (int i = 0; i < 10; i++)
+            append("USD", START + i * HOUR, 1000 + i);
+        final List<ExchangeRate> rates = history.query("USD", START + 2 * HOUR, START + 5 * HOUR);
+        assertEquals(4, rates.size());
+        assertEquals(START + 2 * HOUR, rates.get(0).time);
+        assertEquals(Fiat.valueOf("USD", 1002), rates.get(0).rate.fiat);
+        assertEquals(Fiat.valueOf("USD", 1005), rates.get(3).rate.fiat);
+        assertTrue(history.query("EUR", 0, Long.MAX_VALUE).isEmpty());
+    }
+
+    @Test
+    public void skipSamplesWithinInterval() throws Exception {
+        append("USD", START, 1000);
+        append("USD", START + HOUR / 2, 2000);
+        append("USD", 0, 3000);
+        assertEquals(1, history.query("USD", 0, Long.MAX_VALUE).size());
+
+        // the interval also applies to samples appended by an earlier instance
+        new ExchangeRatesHistory(dir).append(Collections.singletonList(rate("USD", START + HOUR / 2, 2000)));
+        assertEquals(1, history.query("USD", 0, Long.MAX_VALUE).size());
+    }
+
+    @Test
+    public void downsample() throws Exception {
+        for (int i = 0; i < 100; i++)
+            append("USD", START + i * HOUR, i + 1);
+        final List<ExchangeRate> rates = history.query("USD", START, START + 99 * HOUR, 10);
+        assertEquals(10, rates.size());
+        assertEquals(START + 9 * HOUR, rates.get(0).time);
+        assertEquals(Fiat.valueOf("USD", 5), rates.get(0).rate.fiat);
+        assertEquals(Fiat.valueOf("USD", 95), rates.get(9).rate.fiat);
+    }
+
+    @Test
+    public void rateAt() throws Exception {
+        append("USD", START, 1000);
+        append("USD", START + 10 * HOUR, 2000);
+        assertEquals(Fiat.valueOf("USD", 1000), history.rateAt("USD", START + 4 * HOUR).rate.fiat);
+        assertEquals(Fiat.valueOf("USD", 2000), history.rateAt("USD", START + 6 * HOUR).rate.fiat);
+        assertEquals(Fiat.valueOf("USD", 2000), history.rateAt("USD", START + 30 * HOUR).rate.fiat);
+        assertNull(history.rateAt("USD", START + 100 * HOUR));
+        assertNull(history.rateAt("USD", START - 100 * HOUR));
+        assertNull(history.rateAt("EUR", START));
+    }
+
+    @Test
+    public void compactKeepsFileBounded() throws Exception {
+        for (int i = 0; i < 3000; i++)
+            append("USD", START + i * HOUR, i + 1);
+        final List<ExchangeRate> rates = history.query("USD", 0, Long.MAX_VALUE);
+        assertTrue(rates.size() <= 1024);
+        assertEquals(START, rates.get(0).time);
+        assertEquals(START + 2999 * HOUR, rates.get(rates.size() - 1).time);
+        for (int i = 1; i < rates.size(); i++)
+            assertTrue(rates.get(i).time > rates.get(i - 1).time);
+    }
+
+    @Test
+    public void ignoreTornRecord() throws Exception {
+        append("USD", START, 1000);
+        append("USD", START + HOUR, 2000);
+        final RandomAccessFile raf = new RandomAccessFile(new File(dir, "USD"), "rw");
+        raf.setLength(raf.length() - 3);
+        raf.close();
+
+        final ExchangeRatesHistory reopened = new ExchangeRatesHistory(dir);
+        assertEquals(1, reopened.query("USD", 0, Long.MAX_VALUE).size());
+        reopened.append(Collections.singletonList(rate("USD", START + 2 * HOUR, 3000)));
+        assertEquals(2, reopened.query("USD", 0, Long.MAX_VALUE).size());
+    }
+
+    private void append(final String currencyCode, final long time, final long value) {
+        history.append(Collections.singletonList(rate(currencyCode, time, value)));
+    }
+
+    private static ExchangeRate rate(final String currencyCode, final long time, final long value) {
+        return new ExchangeRate(new org.bitcoinj.utils.ExchangeRate(Fiat.valueOf(currencyCode, value)), null, time);
+    }
+}
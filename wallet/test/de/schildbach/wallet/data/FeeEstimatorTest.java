@@ -0,0 +1,146 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Sha256Hash;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.schildbach.wallet.ui.send.FeeCategory;
+
+public class FeeEstimatorTest {
+    private static final long MINUTE = 60 * 1000;
+    private static final long START = 1500000000000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private FeeEstimator estimator;
+    private int counter = 0;
+
+    @Before
+    public void setUp() throws Exception {
+        file = new File(folder.getRoot(), "fee-estimator");
+        estimator = new FeeEstimator(file);
+    }
+
+    @Test
+    public void noEstimateWithoutSamples() throws Exception {
+        assertNull(estimator.estimate(FeeCategory.NORMAL));
+        assertTrue(estimator.estimates().isEmpty());
+    }
+
+    @Test
+    public void ignoreTransactionsNotSeenUnconfirmed() throws Exception {
+        for (int i = 0; i < 20; i++)
+            estimator.confirmed(Sha256Hash.of(new byte[] { (byte) i }), Coin.valueOf(100000), START);
+        assertNull(estimator.estimate(FeeCategory.NORMAL));
+    }
+
+    @Test
+    public void ignoreExcludedTransactions() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            final Sha256Hash hash = Sha256Hash.of(new byte[] { (byte) i });
+            estimator.ignore(hash);
+            estimator.seen(hash, START);
+            estimator.confirmed(hash, Coin.valueOf(100000), START + MINUTE);
+        }
+        assertNull(estimator.estimate(FeeCategory.NORMAL));
+    }
+
+    @Test
+    public void estimateFromConfirmationDelays() throws Exception {
+        // high fee rates confirm quickly, low fee rates take hours
+        for (int i = 0; i < 10; i++) {
+            sample(200000, 5 * MINUTE);
+            sample(50000, 5 * MINUTE);
+            sample(10000, 3 * 60 * MINUTE);
+        }
+
+        final Coin normal = estimator.estimate(FeeCategory.NORMAL);
+        assertTrue(normal.isGreaterThan(Coin.valueOf(10000)));
+        assertTrue(!normal.isGreaterThan(Coin.valueOf(50000)));
+        final Coin economic = estimator.estimate(FeeCategory.ECONOMIC);
+        assertTrue(!economic.isGreaterThan(Coin.valueOf(10000)));
+    }
+
+    @Test
+    public void samplesDecay() throws Exception {
+        for (int i = 0; i < 10; i++)
+            sample(50000, 5 * MINUTE);
+        for (int i = 0; i < 2000; i++)
+            estimator.block();
+        assertNull(estimator.estimate(FeeCategory.NORMAL));
+    }
+
+    @Test
+    public void samplesSurviveReload() throws Exception {
+        for (int i = 0; i < 10; i++)
+            sample(50000, 5 * MINUTE);
+        estimator.block();
+        final Coin normal = estimator.estimate(FeeCategory.NORMAL);
+        assertTrue(normal != null);
+
+        assertEquals(normal, new FeeEstimator(file).estimate(FeeCategory.NORMAL));
+    }
+
+    @Test
+    public void pendingTransactionsSurviveReload() throws Exception {
+        final Sha256Hash ignoredHash = Sha256Hash.of(new byte[] { -1 });
+        estimator.seen(ignoredHash, START);
+        estimator.ignore(ignoredHash);
+        for (int i = 0; i < 10; i++)
+            estimator.seen(Sha256Hash.of(new byte[] { (byte) i }), START);
+        estimator.block();
+
+        final FeeEstimator reloaded = new FeeEstimator(file);
+        reloaded.confirmed(ignoredHash, Coin.valueOf(50000), START + MINUTE);
+        assertNull(reloaded.estimate(FeeCategory.NORMAL));
+        for (int i = 0; i < 10; i++)
+            reloaded.confirmed(Sha256Hash.of(new byte[] { (byte) i }), Coin.valueOf(50000), START + MINUTE);
+        assertTrue(reloaded.estimate(FeeCategory.NORMAL) != null);
+    }
+
+    @Test
+    public void ignoreCorruptFile() throws Exception {
+        final FileOutputStream os = new FileOutputStream(file);
+        os.write(new byte[] { 1, 2, 3 });
+        os.close();
+
+        assertNull(estimator.estimate(FeeCategory.NORMAL));
+        sample(50000, 5 * MINUTE);
+    }
+
+    private void sample(final long feePerKb, final long delayMs) {
+        final Sha256Hash hash = Sha256Hash.of(new byte[] { (byte) counter, (byte) (counter >> 8) });
+        counter++;
+        estimator.seen(hash, START);
+        estimator.confirmed(hash, Coin.valueOf(feePerKb), START + delayMs);
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PeerCacheTest {
+    private static final long MINUTE = 60 * 1000;
+    private static final long START = 1500000000000L;
+    private static final InetSocketAddress PEER_1 = new InetSocketAddress("10.0.0.1", 8333);
+    private static final InetSocketAddress PEER_2 = new InetSocketAddress("10.0.0.2", 8333);
+    private static final InetSocketAddress PEER_3 = new InetSocketAddress("2001:db8::3", 18333);
+
+    private File file;
+    private PeerCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("peers", null);
+        file.delete();
+        cache = new PeerCache(file);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        file.delete();
+    }
+
+    @Test
+    public void rankByThroughputAndLatency() throws Exception {
+        session(PEER_1, 10, 200, 0);
+        session(PEER_2, 10, 50, 100);
+        session(PEER_3, 10, 50, 0);
+        assertEquals(Arrays.asList(PEER_2, PEER_3, PEER_1), cache.best(10, START + 60 * MINUTE));
+        assertEquals(Arrays.asList(PEER_2), cache.best(1, START + 60 * MINUTE));
+    }
+
+    @Test
+    public void demoteAndDropFailingPeers() throws Exception {
+        session(PEER_1, 10, 50, 0);
+        session(PEER_2, 10, 50, 0);
+        long now = START + 20 * MINUTE;
+        cache.connected(PEER_1, now);
+        cache.disconnected(PEER_1, Long.MAX_VALUE, now + 1000);
+        assertEquals(Arrays.asList(PEER_2, PEER_1), cache.best(10, now));
+
+        for (int i = 0; i < 4; i++) {
+            now += MINUTE;
+            cache.connected(PEER_1, now);
+            cache.disconnected(PEER_1, Long.MAX_VALUE, now + 1000);
+        }
+        assertEquals(Arrays.asList(PEER_2), cache.best(10, now));
+    }
+
+    @Test
+    public void dropOldPeers() throws Exception {
+        session(PEER_1, 10, 50, 0);
+        assertEquals(1, cache.best(10, START + 13 * 24 * 60 * MINUTE).size());
+        assertTrue(cache.best(10, START + 15 * 24 * 60 * MINUTE).isEmpty());
+    }
+
+    @Test
+    public void saveAndLoad() throws Exception {
+        session(PEER_1, 10, 200, 0);
+        session(PEER_2, 10, 50, 100);
+        session(PEER_3, 10, 50, 0);
+        cache.save();
+
+        final PeerCache loaded = new PeerCache(file);
+        loaded.load();
+        assertEquals(cache.best(10, START + 60 * MINUTE), loaded.best(10, START + 60 * MINUTE));
+    }
+
+    @Test
+    public void loadMissingFile() throws Exception {
+        cache.load();
+        assertTrue(cache.best(10, START).isEmpty());
+    }
+
+    private void session(final InetSocketAddress address, final long minutes, final long pingMs, final int blocks) {
+        cache.connected(address, START);
+        for (int i = 0; i < blocks; i++)
+            cache.blockDownloaded(address);
+        cache.disconnected(address, pingMs, START + minutes * MINUTE);
+    }
+}
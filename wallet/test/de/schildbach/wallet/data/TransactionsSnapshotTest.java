@@ -0,0 +1,112 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.TransactionConfidence.ConfidenceType;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TransactionsSnapshotTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = new File(folder.getRoot(), "snapshot");
+    }
+
+    @Test
+    public void writeAndRead() throws Exception {
+        final List<TransactionsSnapshot.Row> rows = new ArrayList<TransactionsSnapshot.Row>();
+        rows.add(new TransactionsSnapshot.Row(hash(1), 1500000000000L, Coin.COIN.negate(), ConfidenceType.PENDING,
+                true, false, Coin.valueOf(2260), "mvTeF6xsGU6rsUnKzLfw5ahwVh7hgbrsfw", "Bäcker"));
+        rows.add(new TransactionsSnapshot.Row(hash(2), 1400000000000L, Coin.CENT, ConfidenceType.BUILDING, false,
+                false, null, null, null));
+        TransactionsSnapshot.write(file, rows);
+
+        final List<TransactionsSnapshot.Row> read = TransactionsSnapshot.read(file);
+        assertEquals(2, read.size());
+        final TransactionsSnapshot.Row sent = read.get(0);
+        assertEquals(hash(1), sent.hash);
+        assertEquals(1500000000000L, sent.updateTime);
+        assertEquals(Coin.COIN.negate(), sent.value);
+        assertEquals(ConfidenceType.PENDING, sent.confidenceType);
+        assertTrue(sent.sent);
+        assertFalse(sent.self);
+        assertEquals(Coin.valueOf(2260), sent.fee);
+        assertEquals("mvTeF6xsGU6rsUnKzLfw5ahwVh7hgbrsfw", sent.address);
+        assertEquals("Bäcker", sent.addressLabel);
+        final TransactionsSnapshot.Row received = read.get(1);
+        assertEquals(hash(2), received.hash);
+        assertEquals(ConfidenceType.BUILDING, received.confidenceType);
+        assertFalse(received.sent);
+        assertNull(received.fee);
+        assertNull(received.address);
+        assertNull(received.addressLabel);
+    }
+
+    @Test
+    public void replace() throws Exception {
+        TransactionsSnapshot.write(file, Collections.singletonList(new TransactionsSnapshot.Row(hash(1), 0,
+                Coin.COIN, ConfidenceType.BUILDING, false, false, null, null, null)));
+        TransactionsSnapshot.write(file, Collections.<TransactionsSnapshot.Row> emptyList());
+        assertTrue(TransactionsSnapshot.read(file).isEmpty());
+        assertFalse(new File(folder.getRoot(), "snapshot.tmp").exists());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectTruncated() throws Exception {
+        TransactionsSnapshot.write(file, Collections.singletonList(new TransactionsSnapshot.Row(hash(1), 0,
+                Coin.COIN, ConfidenceType.BUILDING, false, false, null, null, null)));
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() - 1);
+        raf.close();
+        TransactionsSnapshot.read(file);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectForeignFile() throws Exception {
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.writeInt(0x12345678);
+        raf.writeInt(1);
+        raf.close();
+        TransactionsSnapshot.read(file);
+    }
+
+    private static Sha256Hash hash(final int i) {
+        return Sha256Hash.of(new byte[] { (byte) i });
+    }
+}
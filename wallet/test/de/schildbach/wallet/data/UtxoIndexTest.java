@@ -0,0 +1,99 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.params.TestNet3Params;
+import org.bitcoinj.script.ScriptBuilder;
+import org.bitcoinj.wallet.CoinSelection;
+import org.bitcoinj.wallet.Wallet;
+import org.junit.Before;
+import org.junit.Test;
+
+public class UtxoIndexTest {
+    private static final NetworkParameters PARAMS = TestNet3Params.get();
+
+    private final ECKey key = new ECKey();
+    private int outputs = 0;
+    private UtxoIndex index;
+
+    @Before
+    public void setUp() throws Exception {
+        Context.propagate(new Context(PARAMS));
+        index = new UtxoIndex(new Wallet(PARAMS));
+    }
+
+    @Test
+    public void sortedByValue() throws Exception {
+        final TransactionOutput small = output(20000);
+        final TransactionOutput large = output(50000);
+
+        assertEquals(Arrays.asList(large, small), index.sorted(Arrays.asList(small, large)));
+    }
+
+    @Test
+    public void unchangedSnapshot() throws Exception {
+        final List<TransactionOutput> candidates = Arrays.asList(output(20000), output(50000));
+
+        assertSame(index.sorted(candidates), index.sorted(candidates));
+    }
+
+    @Test
+    public void sameSizeDifferentCandidates() throws Exception {
+        // e.g. a transaction died: its change output is gone and its input is spendable again
+        final TransactionOutput kept = output(50000);
+        final TransactionOutput change = output(30000);
+        final TransactionOutput restored = output(40000);
+        index.sorted(Arrays.asList(kept, change));
+
+        assertEquals(Arrays.asList(kept, restored), index.sorted(Arrays.asList(restored, kept)));
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    public void selectOnlyCandidates() throws Exception {
+        final TransactionOutput kept = output(50000);
+        final TransactionOutput change = output(30000);
+        final TransactionOutput restored = output(40000);
+        final BranchAndBoundCoinSelector selector = new BranchAndBoundCoinSelector(index);
+        selector.select(Coin.valueOf(40000), Arrays.asList(kept, change));
+
+        final CoinSelection selection = selector.select(Coin.valueOf(40000), Arrays.asList(kept, restored));
+        assertEquals(Arrays.asList(restored), selection.gathered);
+    }
+
+    private TransactionOutput output(final long value) {
+        final Transaction tx = new Transaction(PARAMS);
+        tx.addInput(Sha256Hash.ZERO_HASH, outputs++, new ScriptBuilder().build()); // unique hash
+        final TransactionOutput output = tx.addOutput(Coin.valueOf(value), key.toAddress(PARAMS));
+        tx.getConfidence().setAppearedAtChainHeight(1);
+        return output;
+    }
+}
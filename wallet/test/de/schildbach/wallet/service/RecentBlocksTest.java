@@ -0,0 +1,91 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.service;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.params.UnitTestParams;
+import org.bitcoinj.store.BlockStore;
+import org.bitcoinj.store.MemoryBlockStore;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RecentBlocksTest {
+    private static final NetworkParameters PARAMS = UnitTestParams.get();
+
+    private BlockStore blockStore;
+    private RecentBlocks recentBlocks;
+
+    @Before
+    public void setUp() throws Exception {
+        blockStore = new MemoryBlockStore(PARAMS);
+        recentBlocks = new RecentBlocks(5, blockStore);
+    }
+
+    @Test
+    public void loadFromBlockStore() throws Exception {
+        final StoredBlock head = extend(blockStore.getChainHead(), 3);
+        recentBlocks.update(head);
+        final List<StoredBlock> blocks = recentBlocks.get(10);
+        assertEquals(4, blocks.size());
+        assertEquals(head, blocks.get(0));
+        assertEquals(0, blocks.get(3).getHeight());
+    }
+
+    @Test
+    public void advanceAndBound() throws Exception {
+        StoredBlock head = blockStore.getChainHead();
+        recentBlocks.update(head);
+        for (int i = 0; i < 10; i++) {
+            head = extend(head, 1);
+            recentBlocks.update(head);
+        }
+        final List<StoredBlock> blocks = recentBlocks.get(10);
+        assertEquals(5, blocks.size());
+        assertEquals(10, blocks.get(0).getHeight());
+        assertEquals(6, blocks.get(4).getHeight());
+        assertEquals(2, recentBlocks.get(2).size());
+    }
+
+    @Test
+    public void reorganize() throws Exception {
+        final StoredBlock splitPoint = extend(blockStore.getChainHead(), 4);
+        recentBlocks.update(extend(splitPoint, 2));
+        final StoredBlock head = extend(splitPoint, 3);
+        recentBlocks.update(head);
+        final List<StoredBlock> blocks = recentBlocks.get(10);
+        assertEquals(5, blocks.size());
+        assertEquals(head, blocks.get(0));
+        assertEquals(splitPoint, blocks.get(3));
+    }
+
+    private StoredBlock extend(final StoredBlock from, final int count) throws Exception {
+        StoredBlock block = from;
+        for (int i = 0; i < count; i++) {
+            final Block next = block.getHeader().createNextBlock(null);
+            block = block.build(next.cloneAsHeader());
+            blockStore.put(block);
+        }
+        return block;
+    }
+}
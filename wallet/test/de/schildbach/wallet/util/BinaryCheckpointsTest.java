@@ -0,0 +1,98 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.params.UnitTestParams;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BinaryCheckpointsTest {
+    private static final NetworkParameters PARAMS = UnitTestParams.get();
+
+    private final List<StoredBlock> checkpoints = new ArrayList<StoredBlock>();
+    private ByteBuffer buffer;
+
+    @Before
+    public void setUp() throws Exception {
+        StoredBlock block = new StoredBlock(PARAMS.getGenesisBlock().cloneAsHeader(),
+                PARAMS.getGenesisBlock().getWork(), 0);
+        for (int i = 0; i < 5; i++) {
+            final Block next = block.getHeader().createNextBlock(null);
+            next.setTime(block.getHeader().getTimeSeconds() + 600);
+            next.solve();
+            block = block.build(next.cloneAsHeader());
+            checkpoints.add(block);
+        }
+        buffer = write(checkpoints);
+    }
+
+    @Test
+    public void findCheckpoint() throws Exception {
+        for (final StoredBlock checkpoint : checkpoints) {
+            final long time = checkpoint.getHeader().getTimeSeconds();
+            assertEquals(checkpoint, BinaryCheckpoints.checkpointBefore(PARAMS, buffer, time));
+            assertEquals(checkpoint, BinaryCheckpoints.checkpointBefore(PARAMS, buffer, time + 599));
+        }
+        assertEquals(checkpoints.get(4), BinaryCheckpoints.checkpointBefore(PARAMS, buffer, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void noCheckpointBefore() throws Exception {
+        final long time = checkpoints.get(0).getHeader().getTimeSeconds();
+        assertNull(BinaryCheckpoints.checkpointBefore(PARAMS, buffer, time - 1));
+    }
+
+    @Test
+    public void empty() throws Exception {
+        assertNull(BinaryCheckpoints.checkpointBefore(PARAMS, write(new ArrayList<StoredBlock>()), Long.MAX_VALUE));
+    }
+
+    @Test(expected = IOException.class)
+    public void truncated() throws Exception {
+        buffer.limit(buffer.capacity() - 1);
+        BinaryCheckpoints.checkpointBefore(PARAMS, buffer.slice(), Long.MAX_VALUE);
+    }
+
+    @Test(expected = IOException.class)
+    public void badMagic() throws Exception {
+        buffer.putInt(0, 0);
+        BinaryCheckpoints.checkpointBefore(PARAMS, buffer, Long.MAX_VALUE);
+    }
+
+    private static ByteBuffer write(final List<StoredBlock> checkpoints) {
+        final int recordSize = StoredBlock.COMPACT_SERIALIZED_SIZE;
+        final ByteBuffer buffer = ByteBuffer.allocate(16 + checkpoints.size() * recordSize);
+        buffer.putInt(BinaryCheckpoints.MAGIC).putInt(BinaryCheckpoints.VERSION).putInt(recordSize)
+                .putInt(checkpoints.size());
+        for (final StoredBlock checkpoint : checkpoints)
+            checkpoint.serializeCompact(buffer);
+        buffer.rewind();
+        return buffer;
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+import com.squareup.okhttp.Connection;
+import com.squareup.okhttp.Interceptor;
+import com.squareup.okhttp.MediaType;
+import com.squareup.okhttp.Protocol;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.RequestBody;
+import com.squareup.okhttp.Response;
+import com.squareup.okhttp.ResponseBody;
+
+public class HttpMetricsTest {
+    private final HttpMetrics metrics = new HttpMetrics();
+
+    @Test
+    public void countCallsAndBytes() throws Exception {
+        final Request request = new Request.Builder().url("https://example.com/fees?x=1")
+                .post(RequestBody.create(MediaType.parse("text/plain"), "12345")).build();
+        final Response response = metrics.intercept(chain(request, 200, "hello world"));
+        assertEquals("hello world", response.body().string());
+        metrics.intercept(chain(request, 404, ""));
+
+        final String report = report();
+        assertTrue(report, report.startsWith("example.com/fees: 2 calls, 0 cached, 1 errors, 10 bytes out, "
+                + "11 bytes in, latency <=100ms:2 "));
+    }
+
+    @Test
+    public void countFailures() throws Exception {
+        final Request request = new Request.Builder().url("https://example.com/").build();
+        try {
+            metrics.intercept(new TestChain(request) {
+                @Override
+                public Response proceed(final Request request) throws IOException {
+                    throw new IOException("no route");
+                }
+            });
+            fail();
+        } catch (final IOException x) {
+            // expected
+        }
+        assertTrue(report().startsWith("example.com/: 1 calls, 0 cached, 1 errors, 0 bytes out, 0 bytes in"));
+    }
+
+    @Test
+    public void boundEndpoints() throws Exception {
+        for (int i = 0; i < 100; i++)
+            metrics.intercept(chain(new Request.Builder().url("https://example.com/" + i).build(), 200, ""));
+        final String report = report();
+        assertEquals(33, report.split("\n").length);
+        assertTrue(report.contains("(other): 68 calls"));
+    }
+
+    private String report() throws IOException {
+        final StringBuilder report = new StringBuilder();
+        metrics.appendReport(report);
+        return report.toString();
+    }
+
+    private static Interceptor.Chain chain(final Request request, final int code, final String body) {
+        return new TestChain(request) {
+            @Override
+            public Response proceed(final Request request) throws IOException {
+                return new Response.Builder().request(request).protocol(Protocol.HTTP_1_1).code(code)
+                        .body(ResponseBody.create(MediaType.parse("text/plain"), body))
+                        .networkResponse(new Response.Builder().request(request).protocol(Protocol.HTTP_1_1)
+                                .code(code).build())
+                        .build();
+            }
+        };
+    }
+
+    private static abstract class TestChain implements Interceptor.Chain {
+        private final Request request;
+
+        public TestChain(final Request request) {
+            this.request = request;
+        }
+
+        @Override
+        public Request request() {
+            return request;
+        }
+
+        @Override
+        public Connection connection() {
+            return null;
+        }
+    }
+}